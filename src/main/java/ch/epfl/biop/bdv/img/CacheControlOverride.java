@@ -31,6 +31,11 @@ public interface CacheControlOverride {
     void setCacheControl(VolatileGlobalCellCache cache);
 
     class Tools {
+        /**
+         * @deprecated loaders shut down the queue they created themselves, and share
+         * queues through {@link ch.epfl.biop.bdv.img.SharedFetchScheduler}
+         */
+        @Deprecated
         public static void shutdownCacheQueue(VolatileGlobalCellCache cache) {
             try {
                 Field queueField = VolatileGlobalCellCache.class.getDeclaredField(
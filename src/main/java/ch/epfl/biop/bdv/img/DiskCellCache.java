@@ -0,0 +1,563 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img;
+
+import bdv.img.cache.CacheArrayLoader;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileDoubleArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileLongArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Local disk tier below the in-memory cell cache: decoded cells are written to a directory
+ * and read back in later sessions instead of being decoded or downloaded again.
+ * <p>
+ * Cells are keyed by the raw pixel data key of their opener, channel, resolution level,
+ * timepoint and position. Files are written atomically (temporary file, then rename) by a
+ * background thread, and the least recently used ones are deleted when the directory
+ * grows above its maximal size.
+ * <p>
+ * Cells are stored in a subdirectory of the directory given by the user, marked as a cell
+ * cache when it is created. Only cell files and interrupted writes of this subdirectory are
+ * ever deleted: a subdirectory which holds other files and has no marker is not used.
+ * <p>
+ * Disabled unless {@link #DIR_PROPERTY} is set, or {@link #enable(Path, long)} is called.
+ */
+public class DiskCellCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(DiskCellCache.class);
+
+	/** System property to set the directory of the disk cell cache, which enables it, e.g.
+	 *  {@code -Dbigdataviewer.diskcache.dir=/scratch/bdv-cells} */
+	public static final String DIR_PROPERTY = "bigdataviewer.diskcache.dir";
+
+	/** System property to set the maximal size of the disk cell cache in megabytes, e.g.
+	 *  {@code -Dbigdataviewer.diskcache.max.mb=20000} */
+	public static final String MAX_MB_PROPERTY = "bigdataviewer.diskcache.max.mb";
+
+	private static final int MAGIC = 0x42445643; // BDVC
+	private static final String SUFFIX = ".cell";
+	private static final String TEMP_SUFFIX = ".tmp";
+	// Subdirectory of the cells in the directory given by the user, and the file marking it
+	static final String CELLS_DIRECTORY = "bdv-cell-cache";
+	static final String MARKER = ".bdv-cell-cache";
+	// Files of the cache: cells sharded by the first two characters of their name
+	private static final Pattern SHARD_PATTERN = Pattern.compile("[0-9a-f]{2}");
+	private static final Pattern CELL_PATTERN = Pattern.compile("[0-9a-f]{40}\\.cell");
+	private static final Pattern TEMP_PATTERN = Pattern.compile("[0-9a-f]{40}\\.cell\\d+\\.tmp");
+	// Cells waiting to be written, beyond which new cells are not written
+	private static final int MAX_PENDING_WRITES = 256;
+
+	private static final byte BYTE = 1, SHORT = 2, INT = 3, LONG = 4, FLOAT = 5, DOUBLE = 6;
+
+	private static volatile DiskCellCache instance;
+	private static volatile boolean initialised = false;
+
+	/**
+	 * @return the disk cell cache of the JVM, or null if it is not enabled
+	 */
+	public static DiskCellCache getInstance() {
+		if (!initialised) {
+			synchronized (DiskCellCache.class) {
+				if (!initialised) {
+					String dir = System.getProperty(DIR_PROPERTY);
+					if ((dir != null) && !dir.trim().isEmpty()) {
+						instance = create(Paths.get(dir.trim()), Long.getLong(MAX_MB_PROPERTY, 4096) * 1024 * 1024);
+					}
+					initialised = true;
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Enables the disk cell cache for the setup loaders created from now on
+	 * @param directory directory in which the cells are stored, in a subdirectory, created if needed
+	 * @param maxBytes maximal size of the cached cells
+	 * @return the disk cell cache, or null if the directory can't be used
+	 */
+	public static synchronized DiskCellCache enable(Path directory, long maxBytes) {
+		instance = create(directory, maxBytes);
+		initialised = true;
+		return instance;
+	}
+
+	/**
+	 * Disables the disk cell cache for the setup loaders created from now on. Cached cells are kept.
+	 */
+	public static synchronized void disable() {
+		instance = null;
+		initialised = true;
+	}
+
+	private static DiskCellCache create(Path directory, long maxBytes) {
+		try {
+			Path cells = directory.resolve(CELLS_DIRECTORY);
+			Files.createDirectories(cells);
+			Path marker = cells.resolve(MARKER);
+			if (!Files.exists(marker)) {
+				// Files of a directory the cache did not create are never indexed nor evicted
+				try (Stream<Path> content = Files.list(cells)) {
+					if (content.findAny().isPresent()) throw new IOException(cells + " is not a disk cell cache");
+				}
+				try {
+					Files.createFile(marker);
+				} catch (FileAlreadyExistsException e) {
+					// Created by another cache in the meantime
+				}
+			}
+			return new DiskCellCache(cells, maxBytes);
+		} catch (IOException e) {
+			logger.warn("Disk cell cache disabled, can't use directory " + directory + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private final Path directory;
+	private final long maxBytes;
+	// Size of the cell files by name, in access order. Guarded by itself.
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(1024, 0.75f, true);
+	private long totalBytes = 0; // Guarded by index
+	private final ThreadPoolExecutor writer;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private DiskCellCache(Path directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = Math.max(0, maxBytes);
+		// A single daemon thread indexes the existing cells, then writes the new ones
+		this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(MAX_PENDING_WRITES), r -> {
+					Thread thread = new Thread(r, "bdv-disk-cell-cache");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}, new ThreadPoolExecutor.DiscardPolicy());
+		writer.execute(this::indexExistingCells);
+	}
+
+	/**
+	 * @return the directory of the cell files, a subdirectory of the directory the cache was enabled with
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getSizeBytes() {
+		synchronized (index) {
+			return totalBytes;
+		}
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @param location location of an image
+	 * @return size and modification time of the file, to invalidate the cached cells of a
+	 * modified file, or an empty string if the location is not a local file
+	 */
+	public static String getFileStamp(String location) {
+		if (location == null) return "";
+		File file = new File(location);
+		if (!file.isFile()) return "";
+		return file.length() + "." + file.lastModified();
+	}
+
+	/**
+	 * Makes an array loader check the disk cache before loading a cell, and write the cells it loads
+	 * @param loader loader of the cells of a setup
+	 * @param key identifies the pixels returned by the loader: raw pixel data key, channel and
+	 *            anything changing the decoded values (pixel type conversion...)
+	 * @param <A> access type
+	 * @return the loader backed by the disk cache
+	 */
+	public <A> CacheArrayLoader<A> wrap(CacheArrayLoader<A> loader, String key) {
+		return new DiskCachedArrayLoader<>(loader, key);
+	}
+
+	private class DiskCachedArrayLoader<A> implements CacheArrayLoader<A> {
+
+		private final CacheArrayLoader<A> loader;
+		private final String key;
+
+		DiskCachedArrayLoader(CacheArrayLoader<A> loader, String key) {
+			this.loader = loader;
+			this.key = key;
+		}
+
+		@Override
+		public A loadArray(int timepoint, int setup, int level, int[] dimensions, long[] min) throws InterruptedException {
+			String cellKey = cellKey(key, timepoint, level, dimensions, min);
+			A cached = read(cellKey);
+			if (cached != null) {
+				hits.incrementAndGet();
+				return cached;
+			}
+			misses.incrementAndGet();
+			A array = loader.loadArray(timepoint, setup, level, dimensions, min);
+			write(cellKey, array);
+			return array;
+		}
+
+		@Override
+		public int getBytesPerElement() {
+			return loader.getBytesPerElement();
+		}
+	}
+
+	// Identifies a cell of the pixels of a loader across sessions
+	static String cellKey(String key, int timepoint, int level, int[] dimensions, long[] min) {
+		return key + "/" + level + "/" + timepoint + "/" + Arrays.toString(min) + "/" + Arrays.toString(dimensions);
+	}
+
+	// Waits until the cells given so far have been written, and the existing cells indexed
+	void awaitWrites() throws InterruptedException, ExecutionException {
+		writer.submit(() -> { }).get();
+	}
+
+	// -------- Reading
+
+	@SuppressWarnings("unchecked")
+	private <A> A read(String cellKey) {
+		String name = fileName(cellKey);
+		Path file = directory.resolve(name.substring(0, 2)).resolve(name);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.nativeOrder());
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) throw new IOException("Truncated cell file");
+			}
+			buffer.flip();
+			if (buffer.getInt() != MAGIC) throw new IOException("Not a cell file");
+			byte[] storedKey = new byte[buffer.getInt()];
+			buffer.get(storedKey);
+			// Same file name for a different key: hash collision, treated as a miss
+			if (!cellKey.equals(new String(storedKey, StandardCharsets.UTF_8))) return null;
+			byte type = buffer.get();
+			int length = buffer.getInt();
+			Object array = readArray(buffer, type, length);
+			touch(name);
+			return (A) array;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			logger.debug("Discarding unreadable cell file " + file + ": " + e.getMessage());
+			delete(name, file);
+			return null;
+		}
+	}
+
+	private static Object readArray(ByteBuffer buffer, byte type, int length) throws IOException {
+		switch (type) {
+			case BYTE: {
+				byte[] data = new byte[length];
+				buffer.get(data);
+				return new VolatileByteArray(data, true);
+			}
+			case SHORT: {
+				short[] data = new short[length];
+				buffer.asShortBuffer().get(data);
+				return new VolatileShortArray(data, true);
+			}
+			case INT: {
+				int[] data = new int[length];
+				buffer.asIntBuffer().get(data);
+				return new VolatileIntArray(data, true);
+			}
+			case LONG: {
+				long[] data = new long[length];
+				buffer.asLongBuffer().get(data);
+				return new VolatileLongArray(data, true);
+			}
+			case FLOAT: {
+				float[] data = new float[length];
+				buffer.asFloatBuffer().get(data);
+				return new VolatileFloatArray(data, true);
+			}
+			case DOUBLE: {
+				double[] data = new double[length];
+				buffer.asDoubleBuffer().get(data);
+				return new VolatileDoubleArray(data, true);
+			}
+			default:
+				throw new IOException("Unknown cell type " + type);
+		}
+	}
+
+	// -------- Writing
+
+	private void write(String cellKey, Object array) {
+		// Cells of other access types are not cached on disk
+		if (typeOf(array) == 0) return;
+		try {
+			// Loaded arrays are not modified anymore: they can be written later
+			writer.execute(() -> store(cellKey, array));
+		} catch (RejectedExecutionException e) {
+			// Not written, the cell will be loaded again next time
+		}
+	}
+
+	private static byte typeOf(Object array) {
+		if (array instanceof VolatileByteArray) return BYTE;
+		if (array instanceof VolatileShortArray) return SHORT;
+		if (array instanceof VolatileIntArray) return INT;
+		if (array instanceof VolatileLongArray) return LONG;
+		if (array instanceof VolatileFloatArray) return FLOAT;
+		if (array instanceof VolatileDoubleArray) return DOUBLE;
+		return 0;
+	}
+
+	private void store(String cellKey, Object array) {
+		String name = fileName(cellKey);
+		Path dir = directory.resolve(name.substring(0, 2));
+		Path file = dir.resolve(name);
+		if (Files.exists(file)) return;
+		byte type = typeOf(array);
+		byte[] key = cellKey.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer data = toBytes(array, type);
+		ByteBuffer header = ByteBuffer.allocate(4 + 4 + key.length + 1 + 4).order(ByteOrder.nativeOrder());
+		header.putInt(MAGIC).putInt(key.length).put(key).put(type).putInt(length(array, type));
+		header.flip();
+		long size = header.remaining() + data.remaining();
+		if (size > maxBytes) return;
+		Path tmp = null;
+		try {
+			Files.createDirectories(dir);
+			tmp = Files.createTempFile(dir, name, TEMP_SUFFIX);
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				while (header.hasRemaining()) channel.write(header);
+				while (data.hasRemaining()) channel.write(data);
+			}
+			try {
+				Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			tmp = null;
+			added(name, size);
+		} catch (IOException e) {
+			logger.debug("Could not write cell file " + file + ": " + e.getMessage());
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) {
+					// Left for the next indexing
+				}
+			}
+		}
+	}
+
+	private static int length(Object array, byte type) {
+		switch (type) {
+			case BYTE: return ((VolatileByteArray) array).getCurrentStorageArray().length;
+			case SHORT: return ((VolatileShortArray) array).getCurrentStorageArray().length;
+			case INT: return ((VolatileIntArray) array).getCurrentStorageArray().length;
+			case LONG: return ((VolatileLongArray) array).getCurrentStorageArray().length;
+			case FLOAT: return ((VolatileFloatArray) array).getCurrentStorageArray().length;
+			default: return ((VolatileDoubleArray) array).getCurrentStorageArray().length;
+		}
+	}
+
+	private static ByteBuffer toBytes(Object array, byte type) {
+		int length = length(array, type);
+		ByteBuffer buffer;
+		switch (type) {
+			case BYTE:
+				return ByteBuffer.wrap(((VolatileByteArray) array).getCurrentStorageArray());
+			case SHORT:
+				buffer = ByteBuffer.allocate(2 * length).order(ByteOrder.nativeOrder());
+				buffer.asShortBuffer().put(((VolatileShortArray) array).getCurrentStorageArray());
+				return buffer;
+			case INT:
+				buffer = ByteBuffer.allocate(4 * length).order(ByteOrder.nativeOrder());
+				buffer.asIntBuffer().put(((VolatileIntArray) array).getCurrentStorageArray());
+				return buffer;
+			case LONG:
+				buffer = ByteBuffer.allocate(8 * length).order(ByteOrder.nativeOrder());
+				buffer.asLongBuffer().put(((VolatileLongArray) array).getCurrentStorageArray());
+				return buffer;
+			case FLOAT:
+				buffer = ByteBuffer.allocate(4 * length).order(ByteOrder.nativeOrder());
+				buffer.asFloatBuffer().put(((VolatileFloatArray) array).getCurrentStorageArray());
+				return buffer;
+			default:
+				buffer = ByteBuffer.allocate(8 * length).order(ByteOrder.nativeOrder());
+				buffer.asDoubleBuffer().put(((VolatileDoubleArray) array).getCurrentStorageArray());
+				return buffer;
+		}
+	}
+
+	// -------- Size cap
+
+	private void indexExistingCells() {
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> paths = Files.walk(directory, 2)) {
+			// Only the files of the shard directories: the marker and other files are left alone
+			paths.filter(path -> (directory.relativize(path).getNameCount() == 2) && Files.isRegularFile(path) &&
+					SHARD_PATTERN.matcher(path.getParent().getFileName().toString()).matches())
+					.forEach(files::add);
+		} catch (IOException e) {
+			logger.warn("Could not index the disk cell cache " + directory + ": " + e.getMessage());
+			return;
+		}
+		// Oldest first: the access order of previous sessions is kept in the modification times
+		List<Object[]> cells = new ArrayList<>();
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			String shard = file.getParent().getFileName().toString();
+			try {
+				if (TEMP_PATTERN.matcher(name).matches()) {
+					Files.deleteIfExists(file); // Interrupted write
+				} else if (CELL_PATTERN.matcher(name).matches() && name.startsWith(shard)) {
+					cells.add(new Object[] { name, Files.size(file), Files.getLastModifiedTime(file).toMillis() });
+				}
+			} catch (IOException e) {
+				// Removed in the meantime
+			}
+		}
+		cells.sort(Comparator.comparingLong(cell -> (Long) cell[2]));
+		synchronized (index) {
+			for (Object[] cell : cells) {
+				Long previous = index.put((String) cell[0], (Long) cell[1]);
+				totalBytes += (Long) cell[1] - ((previous == null) ? 0 : previous);
+			}
+		}
+		logger.debug("Disk cell cache " + directory + ": " + cells.size() + " cells, " + getSizeBytes() / (1024 * 1024) + " MB");
+		evict();
+	}
+
+	private void added(String name, long size) {
+		synchronized (index) {
+			Long previous = index.put(name, size);
+			totalBytes += size - ((previous == null) ? 0 : previous);
+		}
+		evict();
+	}
+
+	private void touch(String name) {
+		synchronized (index) {
+			index.get(name); // Moves it to the end of the access order
+		}
+		try {
+			// Keeps the access order for the next sessions
+			Path file = directory.resolve(name.substring(0, 2)).resolve(name);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Evicted in the meantime
+		}
+	}
+
+	private void evict() {
+		List<String> evicted = new ArrayList<>();
+		synchronized (index) {
+			Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+			while ((totalBytes > maxBytes) && iterator.hasNext()) {
+				Map.Entry<String, Long> eldest = iterator.next();
+				totalBytes -= eldest.getValue();
+				evicted.add(eldest.getKey());
+				iterator.remove();
+			}
+		}
+		for (String name : evicted) {
+			try {
+				Files.deleteIfExists(directory.resolve(name.substring(0, 2)).resolve(name));
+			} catch (IOException e) {
+				logger.debug("Could not delete cell file " + name + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private void delete(String name, Path file) {
+		synchronized (index) {
+			Long size = index.remove(name);
+			if (size != null) totalBytes -= size;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// Already deleted
+		}
+	}
+
+	private static String fileName(String cellKey) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(cellKey.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder(2 * digest.length + SUFFIX.length());
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return name.append(SUFFIX).toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // SHA-1 is always available
+		}
+	}
+
+}
@@ -22,6 +22,7 @@
 package ch.epfl.biop.bdv.img;
 
 import bdv.AbstractViewerSetupImgLoader;
+import bdv.img.cache.CacheArrayLoader;
 import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
 import net.imglib2.Volatile;
 import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
@@ -43,4 +44,56 @@ abstract public class OpenerSetupLoader<T extends NumericType<T> & NativeType<T>
         super(type, volatileType);
     }
 
+    // Number of priorities of the fetcher queue of the image loader
+    private volatile int numPriorities = OpenersImageLoader.DEFAULT_NUM_PRIORITIES;
+
+    /**
+     * @param numPriorities number of priorities of the fetcher queue the cells of this setup are loaded with
+     */
+    public void setNumPriorities(int numPriorities) {
+        this.numPriorities = Math.max(1, numPriorities);
+    }
+
+    /**
+     * @return number of priorities of the fetcher queue the cells of this setup are loaded with
+     */
+    public int getNumPriorities() {
+        return numPriorities;
+    }
+
+    /**
+     * @param level resolution level
+     * @param numLevels number of resolution levels
+     * @return the fetcher queue priority of the cells of this level, see {@link #getQueuePriority(int, int, int)}
+     */
+    protected int getQueuePriority(int level, int numLevels) {
+        return getQueuePriority(level, numLevels, numPriorities);
+    }
+
+    /**
+     * Spreads resolution levels over the priorities of a fetcher queue: the lowest resolution
+     * gets the highest priority (0) so that a coarse image is shown first, the highest
+     * resolution gets the lowest priority (numPriorities - 1), whatever the number of levels.
+     * @param level resolution level, 0 being the highest resolution
+     * @param numLevels number of resolution levels
+     * @param numPriorities number of priorities of the queue
+     * @return the priority, between 0 and numPriorities - 1
+     */
+    public static int getQueuePriority(int level, int numLevels, int numPriorities) {
+        if ((numLevels <= 1) || (numPriorities <= 1)) return 0;
+        int clampedLevel = Math.max(0, Math.min(level, numLevels - 1));
+        return (int) Math.round((double) (numLevels - 1 - clampedLevel) * (numPriorities - 1) / (numLevels - 1));
+    }
+
+    /**
+     * @param loader loader of the cells of this setup
+     * @param key identifies the pixels returned by the loader, see {@link DiskCellCache#wrap(CacheArrayLoader, String)}
+     * @param <A> access type
+     * @return the loader backed by the {@link DiskCellCache} if it is enabled, the loader otherwise
+     */
+    protected static <A> CacheArrayLoader<A> withDiskCache(CacheArrayLoader<A> loader, String key) {
+        DiskCellCache diskCache = DiskCellCache.getInstance();
+        return (diskCache == null) ? loader : diskCache.wrap(loader, key);
+    }
+
 }
@@ -28,8 +28,10 @@ import bdv.img.cache.VolatileGlobalCellCache;
 import ch.epfl.biop.bdv.img.omero.IOMEROSession;
 import ch.epfl.biop.bdv.img.omero.OmeroHelper;
 import ch.epfl.biop.bdv.img.opener.EmptyOpener;
+import ch.epfl.biop.bdv.img.opener.LazyOpener;
 import ch.epfl.biop.bdv.img.opener.Opener;
 import ch.epfl.biop.bdv.img.opener.OpenerSettings;
+import ch.epfl.biop.bdv.img.opener.OpenerStructure;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
 import omero.gateway.facility.BrowseFacility;
@@ -45,6 +47,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -66,18 +73,43 @@ public class OpenersImageLoader implements ViewerImgLoader, MultiResolutionImgLo
 	int viewSetupCounter = 0;
 
 
-	// -------- setupLoader registration
-	final Map<Integer, OpenerSetupLoader<?,?,?>> setupLoaders = new HashMap<>();
+	// -------- setupLoader registration, indexed by setup id: a single volatile read once created
+	final AtomicReferenceArray<OpenerSetupLoader<?,?,?>> setupLoaders;
 
 	// -------- setupLoader optimisation
-	final Map<String, Opener<?>> rawPixelDataChannelToOpener = new HashMap<>();
-	final Map<String, OpenerSetupLoader<?,?,?>> rawPixelDataChannelToSetupLoader = new HashMap<>();
+	final Map<String, Opener<?>> rawPixelDataChannelToOpener = new ConcurrentHashMap<>();
+	// Concurrent: setup loaders are requested by BDV, prefetchers and scripts at the same time,
+	// and each raw pixel data channel must get a single setup loader. Setup loaders are created
+	// outside of the map, which may create the opener of the channel
+	final Map<String, FutureTask<OpenerSetupLoader<?,?,?>>> rawPixelDataChannelToSetupLoader = new ConcurrentHashMap<>();
+
+	// Structure of each created opener, captured on the first save only: empty if it can't be saved
+	final Map<Integer, Optional<OpenerStructure>> openerToStructure = new ConcurrentHashMap<>();
 
 	// -------- How to open image (threads, cache)
 	protected VolatileGlobalCellCache cache;
-	protected final SharedQueue sq;
-	public final int numFetcherThreads = 10;
-	public final int numPriorities = 4;
+	protected final SharedQueue sq; // null when the loader joined the shared scheduler from the start
+	private volatile SharedFetchScheduler.Share fetchShare;
+	public final int numFetcherThreads;
+	public final int numPriorities;
+
+	/** System property to set the number of fetcher threads loading cells, or {@code readers} to size
+	 *  them from the readers of the dataset, e.g. {@code -Dbigdataviewer.fetcher.threads=readers} */
+	public static final String FETCHER_THREADS_PROPERTY = "bigdataviewer.fetcher.threads";
+
+	/** System property to set the number of priorities of the fetcher queue, e.g.
+	 *  {@code -Dbigdataviewer.fetcher.priorities=8}. Resolution levels are spread over them. */
+	public static final String FETCHER_PRIORITIES_PROPERTY = "bigdataviewer.fetcher.priorities";
+
+	public static final int DEFAULT_NUM_FETCHER_THREADS = 10;
+	public static final int DEFAULT_NUM_PRIORITIES = 4;
+
+	/** System property to create the openers of datasets loaded from XML on first use, e.g.
+	 *  {@code -Dbigdataviewer.openers.lazy=true}, see {@link #createLazyOpeners(List)} */
+	public static final String LAZY_OPENERS_PROPERTY = "bigdataviewer.openers.lazy";
+
+	/** Number of fetcher threads which lets the loader size them, see {@link #getReaderSizedFetcherThreads(List)} */
+	public static final int READER_SIZED_FETCHER_THREADS = 0;
 
 
 	// -------- Openers core infos
@@ -117,11 +149,33 @@ public class OpenersImageLoader implements ViewerImgLoader, MultiResolutionImgLo
 	public OpenersImageLoader(List<OpenerSettings> openerSettings,
 							  List<Opener<?>> openers,
 							  final AbstractSequenceDescription<?, ?, ?> sequenceDescription)
+	{
+		this(openerSettings, openers, sequenceDescription, getFetcherThreadsProperty(),
+				Integer.getInteger(FETCHER_PRIORITIES_PROPERTY, DEFAULT_NUM_PRIORITIES));
+	}
+
+	/**
+	 * Constructor
+	 * @param openerSettings list of opener settings defining data sources
+	 * @param openers list of openers corresponding to the settings
+	 * @param sequenceDescription the sequence description for this image loader
+	 * @param numFetcherThreads number of threads loading cells, {@link #READER_SIZED_FETCHER_THREADS} to size
+	 *                          them from the readers of the opener settings
+	 * @param numPriorities number of priorities of the fetcher queue
+	 */
+	public OpenersImageLoader(List<OpenerSettings> openerSettings,
+							  List<Opener<?>> openers,
+							  final AbstractSequenceDescription<?, ?, ?> sequenceDescription,
+							  int numFetcherThreads, int numPriorities)
 	{
 		this.openerSettings = openerSettings; // Need to keep a ref for serialization
 		this.openers = openers;
 		this.sequenceDescription = sequenceDescription;
-		this.sq = new SharedQueue(numFetcherThreads, numPriorities);
+		this.numFetcherThreads = numFetcherThreads > 0 ? numFetcherThreads : getReaderSizedFetcherThreads(openerSettings);
+		this.numPriorities = Math.max(1, numPriorities);
+		logger.debug("Fetcher queue: " + this.numFetcherThreads + " threads, " + this.numPriorities + " priorities");
+		boolean shared = SharedFetchScheduler.isEnabled();
+		this.sq = shared ? null : new SharedQueue(this.numFetcherThreads, this.numPriorities);
 
 		// for each opener
 		IntStream openersIdxStream = IntStream.range(0, openers.size());
@@ -132,13 +186,14 @@ public class OpenersImageLoader implements ViewerImgLoader, MultiResolutionImgLo
 					Opener<?> opener = openers.get(iF);
 					final int iFile = iF;
 
-					logger.debug("\t Number of timesteps = " + opener.getNTimePoints());
+					if (!(opener instanceof LazyOpener)) {
+						logger.debug("\t Number of timesteps = " + opener.getNTimePoints());
+					}
 					logger.debug("\t Number of channels = " +opener.getNChannels());
 
 					// Register Setups (one per channel and one per timepoint)
 					IntStream channels = IntStream.range(0, opener.getNChannels());
 					channels.forEach(iCh -> {
-						rawPixelDataChannelToOpener.put(iCh+"."+opener.getRawPixelDataKey(), opener);
 						OpenerAndChannelIndex oci = new OpenerAndChannelIndex(iFile, iCh);
 						viewSetupToOpenerChannel.put(viewSetupCounter, oci);
 						viewSetupCounter++;
@@ -149,12 +204,89 @@ public class OpenersImageLoader implements ViewerImgLoader, MultiResolutionImgLo
 				}
 			});
 		}
-		cache = new VolatileGlobalCellCache(sq);
+		setupLoaders = new AtomicReferenceArray<>(viewSetupCounter);
+		if (shared) {
+			joinSharedFetchScheduler(1);
+		} else {
+			cache = new VolatileGlobalCellCache(sq);
+		}
+		LazyOpener.materializeInBackground(openers);
+	}
+
+	/**
+	 * Makes this loader load its cells with the threads of the {@link SharedFetchScheduler},
+	 * and releases its own queue and cache. Resolution levels of setup loaders created from
+	 * then on are spread over the priorities of the scheduler: join before the dataset is displayed.
+	 * @param weight relative share of the threads of the scheduler given to this dataset
+	 */
+	public synchronized void joinSharedFetchScheduler(double weight) {
+		if (fetchShare != null) {
+			fetchShare.setWeight(weight);
+			return;
+		}
+		if (!rawPixelDataChannelToSetupLoader.isEmpty() &&
+				(SharedFetchScheduler.getInstance().getNumPriorities() != numPriorities)) {
+			logger.warn("Setup loaders created before joining the shared fetch scheduler use " + numPriorities +
+					" priorities instead of " + SharedFetchScheduler.getInstance().getNumPriorities());
+		}
+		String name = openerSettings.isEmpty() ? "empty" : openerSettings.get(0).getLocation();
+		fetchShare = SharedFetchScheduler.getInstance().join(this, name, weight);
+	}
+
+	/**
+	 * @return the share of this dataset in the {@link SharedFetchScheduler}, or null if it did not join it
+	 */
+	public SharedFetchScheduler.Share getFetchShare() {
+		return fetchShare;
+	}
+
+	private void leaveSharedFetchScheduler() {
+		SharedFetchScheduler.Share share = fetchShare;
+		if (share == null) return;
+		fetchShare = null;
+		SharedFetchScheduler.getInstance().leave(share);
+	}
+
+	private static int getFetcherThreadsProperty() {
+		String value = System.getProperty(FETCHER_THREADS_PROPERTY);
+		if ((value == null) || value.trim().isEmpty()) return DEFAULT_NUM_FETCHER_THREADS;
+		if (value.trim().equalsIgnoreCase("readers")) return READER_SIZED_FETCHER_THREADS;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid " + FETCHER_THREADS_PROPERTY + " value: " + value);
+			return DEFAULT_NUM_FETCHER_THREADS;
+		}
+	}
+
+	/**
+	 * A fetcher thread only loads a cell while it holds a reader, so threads are sized from the
+	 * total number of readers of the pools the settings create (the series of a file share
+	 * one pool, counted once), capped by the {@link ReaderBudget}, between 2 and 4 threads
+	 * per core. Only the settings are used, so lazy openers are counted without being created.
+	 * The threads are sized once, when the loader is created: a {@link SharedQueue} can't
+	 * change its number of threads afterwards, so they do not follow the loading times.
+	 * @param openerSettings settings of the openers of the dataset
+	 * @return the number of fetcher threads
+	 */
+	public static int getReaderSizedFetcherThreads(List<OpenerSettings> openerSettings) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		Map<String, Integer> poolSizes = new HashMap<>();
+		for (OpenerSettings settings : openerSettings) {
+			poolSizes.merge(settings.getType() + ":" + settings.getLocation(), settings.getReaderPoolSize(), Math::max);
+		}
+		long capacity = 0;
+		for (int size : poolSizes.values()) {
+			capacity += size;
+		}
+		capacity = Math.min(capacity, ReaderBudget.getInstance().getMax());
+		return (int) Math.max(2, Math.min(capacity, 4L * cores));
 	}
 
 	public static List<Opener<?>> createOpeners(List<OpenerSettings> openerSettings) {
 		List<Opener<?>> openers;
-		Map<String, Object> cachedObjects = new HashMap<>();
+		// Concurrent: openers are created in parallel, see OpenerHelper.memoize
+		Map<String, Object> cachedObjects = new ConcurrentHashMap<>();
 		// --------------- Optimization for OMERO - batch queries are much more efficient than multiple queries per image
 
 		List<OpenerSettings> omeroOpeners = openerSettings
@@ -213,22 +345,107 @@ public class OpenersImageLoader implements ViewerImgLoader, MultiResolutionImgLo
 		}
 
 		// ---------------
-		openers = openerSettings.parallelStream().map(settings -> {
-			try {
-				return settings.create(cachedObjects);
-			} catch (Exception e) {
-				System.err.println("Error in opener "+e.getMessage()+" : "+settings.toString());
-				logger.error(e.getMessage());
-				e.printStackTrace();
-				int nChannels = settings.getNChannels()>0?settings.getNChannels():1;
-				return new EmptyOpener(e.getMessage(), nChannels, e.getMessage(), false);
-			}
-		}).collect(Collectors.toList());
+		openers = openerSettings.parallelStream()
+				.map(settings -> createOpener(settings, cachedObjects))
+				.collect(Collectors.toList());
 
 		assert openerSettings.size() == openers.size();
 		return openers;
 	}
 
+	/**
+	 * Creates openers which are only opened when they are first used, see {@link LazyOpener}.
+	 * A dataset made of these openers is set up without opening any file (as long as the
+	 * settings know their number of channels), and its openers are then created in the
+	 * background, those of the sources displayed first being created on demand.
+	 * @param openerSettings list of opener settings defining data sources
+	 * @return the lazy openers, in the order of the settings
+	 */
+	public static List<Opener<?>> createLazyOpeners(List<OpenerSettings> openerSettings) {
+		return createLazyOpeners(openerSettings, null);
+	}
+
+	/**
+	 * Creates lazy openers, see {@link #createLazyOpeners(List)}. Openers with a valid structure
+	 * are not created before their pixels are read.
+	 * @param openerSettings list of opener settings defining data sources
+	 * @param structures structures of the images saved with the dataset, in the order of the
+	 *                   settings (null elements if unknown), or null
+	 * @return the lazy openers, in the order of the settings
+	 */
+	public static List<Opener<?>> createLazyOpeners(List<OpenerSettings> openerSettings, List<OpenerStructure> structures) {
+		// Shared by all openers of the dataset, as when they are created together
+		Map<String, Object> cachedObjects = new ConcurrentHashMap<>();
+		List<Opener<?>> openers = new ArrayList<>(openerSettings.size());
+		for (int i = 0; i < openerSettings.size(); i++) {
+			OpenerSettings settings = openerSettings.get(i);
+			OpenerStructure structure = ((structures != null) && (i < structures.size())) ? structures.get(i) : null;
+			if ((structure != null) && !structure.isValidFor(settings)) {
+				logger.info("The file of " + settings.getLocation() + " changed since the dataset was saved, it will be opened again");
+				structure = null;
+			}
+			openers.add(new LazyOpener<>(settings, structure, () -> createOpener(settings, cachedObjects)));
+		}
+		return openers;
+	}
+
+	/**
+	 * Captures the structure of the openers which are created, see {@link OpenerStructure}.
+	 * The structure of an opener is captured once, the first time it is needed, and reused
+	 * each time the dataset is saved. Lazy openers which are not created yet keep the
+	 * structure they were created with.
+	 * @return the structures of the openers, in their order, with null elements if unknown
+	 */
+	public List<OpenerStructure> getOpenerStructures() {
+		// First setup of each opener, whose setup loader gives the resolution levels
+		Map<Integer, Integer> openerToSetup = new HashMap<>();
+		viewSetupToOpenerChannel.forEach((setupId, oci) ->
+				openerToSetup.merge(oci.openerIndex, setupId, Math::min));
+		List<OpenerStructure> structures = new ArrayList<>(openers.size());
+		for (int i = 0; i < openers.size(); i++) {
+			Opener<?> opener = openers.get(i);
+			OpenerStructure structure = null;
+			if ((opener instanceof LazyOpener) && !((LazyOpener<?>) opener).isMaterialized()) {
+				structure = ((LazyOpener<?>) opener).getStructure();
+			} else if (!(unwrap(opener) instanceof EmptyOpener) && openerToSetup.containsKey(i)) {
+				Optional<OpenerStructure> captured = openerToStructure.get(i);
+				if (captured == null) {
+					captured = Optional.ofNullable(captureStructure(i, openerToSetup.get(i)));
+					Optional<OpenerStructure> existing = openerToStructure.putIfAbsent(i, captured);
+					if (existing != null) captured = existing;
+				}
+				structure = captured.orElse(null);
+			}
+			structures.add(structure);
+		}
+		return structures;
+	}
+
+	private OpenerStructure captureStructure(int iOpener, int setupId) {
+		try {
+			return OpenerStructure.capture(openerSettings.get(iOpener), openers.get(iOpener), getSetupImgLoader(setupId));
+		} catch (Exception e) {
+			logger.warn("Could not capture the structure of " + openerSettings.get(iOpener).getLocation() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static Opener<?> unwrap(Opener<?> opener) {
+		return (opener instanceof LazyOpener) ? ((LazyOpener<?>) opener).get() : opener;
+	}
+
+	private static Opener<?> createOpener(OpenerSettings settings, Map<String, Object> cachedObjects) {
+		try {
+			return settings.create(cachedObjects);
+		} catch (Exception e) {
+			System.err.println("Error in opener "+e.getMessage()+" : "+settings.toString());
+			logger.error(e.getMessage());
+			e.printStackTrace();
+			int nChannels = settings.getNChannels()>0?settings.getNChannels():1;
+			return new EmptyOpener(e.getMessage(), nChannels, e.getMessage(), false);
+		}
+	}
+
 	/**
 	 * @param setupId : viewsetup id
 	 * @return the setupLoader corresponding to the current viewsetup id
@@ -236,40 +453,34 @@ public class OpenersImageLoader implements ViewerImgLoader, MultiResolutionImgLo
 	public OpenerSetupLoader getSetupImgLoader(int setupId) {
 		try {
 			// if already registered setup loader
-			if (setupLoaders.containsKey(setupId)) {
-				return setupLoaders.get(setupId);
-			}
-
-			int iOpener = viewSetupToOpenerChannel.get(setupId).openerIndex;
-			int iC = viewSetupToOpenerChannel.get(setupId).channelIndex;
+			OpenerSetupLoader<?,?,?> loader = setupLoaders.get(setupId);
+			if (loader != null) return loader;
 
-			String keySetup = iC+"."+openers.get(viewSetupToOpenerChannel.get(setupId).openerIndex).getRawPixelDataKey();
+			OpenerAndChannelIndex oci = viewSetupToOpenerChannel.get(setupId);
+			int iOpener = oci.openerIndex;
+			int iC = oci.channelIndex;
 
-			if (rawPixelDataChannelToSetupLoader.containsKey(keySetup)) {
-				//System.out.println("Reuse "+keySetup);
-				OpenerSetupLoader<?,?,?> loader = rawPixelDataChannelToSetupLoader.get(keySetup);
-				setupLoaders.put(setupId, loader);
-				return loader;
-				//rawPixelDataChannelToSetupLoader.get(keySetup);.get(openers.get(viewSetupToOpenerChannel.get(setupId).openerIndex).getRawPixelDataKey());
-				//problem : couleur et a mettre dans setupLoader
-				//		faire la fonction synchronized peut etre
-			}
-			else {
+			String keySetup = iC+"."+openers.get(iOpener).getRawPixelDataKey();
+			rawPixelDataChannelToOpener.putIfAbsent(keySetup, openers.get(iOpener));
 
+			// Created once per raw pixel data channel, setups sharing it reuse the same loader
+			FutureTask<OpenerSetupLoader<?,?,?>> creation = new FutureTask<>(() -> {
 				logger.debug("loading file number = " + iOpener + " setupId = " + setupId);
-
 				// select the correct setup loader according to opener type
-				try {
-					OpenerSetupLoader<?,?,?> imgL = openers.get(iOpener).getSetupLoader(iC, setupId, this::getCacheControl);
-					setupLoaders.put(setupId, imgL);
-					rawPixelDataChannelToSetupLoader.put(keySetup, imgL);
-					return imgL;
-				}catch(Exception e){
-					e.printStackTrace();
-				}
-
-				return null;
+				OpenerSetupLoader<?,?,?> imgL = openers.get(iOpener).getSetupLoader(iC, setupId, this::getCacheControl);
+				if (imgL != null) imgL.setNumPriorities(getQueuePriorities());
+				return imgL;
+			});
+			FutureTask<OpenerSetupLoader<?,?,?>> existing = rawPixelDataChannelToSetupLoader.putIfAbsent(keySetup, creation);
+			if (existing == null) {
+				creation.run();
+			} else {
+				creation = existing;
 			}
+			loader = awaitSetupLoader(keySetup, creation);
+
+			if (loader != null) setupLoaders.set(setupId, loader);
+			return loader;
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -278,6 +489,35 @@ public class OpenersImageLoader implements ViewerImgLoader, MultiResolutionImgLo
 		}
 	}
 
+	// Waits for a setup loader created by this thread or another one. A failed creation is
+	// forgotten, so that the next call tries again.
+	private OpenerSetupLoader<?,?,?> awaitSetupLoader(String keySetup, FutureTask<OpenerSetupLoader<?,?,?>> creation) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					OpenerSetupLoader<?,?,?> loader = creation.get();
+					if (loader == null) rawPixelDataChannelToSetupLoader.remove(keySetup, creation);
+					return loader;
+				} catch (InterruptedException e) {
+					// The setup loader is needed anyway: wait for it, and restore the flag afterwards
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			rawPixelDataChannelToSetupLoader.remove(keySetup, creation);
+			e.getCause().printStackTrace();
+			return null;
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	// Priorities of the queue the cells are loaded from
+	private int getQueuePriorities() {
+		return (fetchShare != null) ? SharedFetchScheduler.getInstance().getNumPriorities() : numPriorities;
+	}
+
 	@Override
 	public VolatileGlobalCellCache getCacheControl() {
 		return cache;
@@ -294,14 +534,25 @@ public class OpenersImageLoader implements ViewerImgLoader, MultiResolutionImgLo
 				e.printStackTrace();
 			}
 		});
-		cache.clearCache();
-		sq.shutdown();
+		if (fetchShare != null) {
+			// Clears the cache of the share
+			leaveSharedFetchScheduler();
+		} else if (cache != null) {
+			cache.clearCache();
+		}
+		if (sq != null) sq.shutdown();
 	}
 
 	@Override
-	public void setCacheControl(VolatileGlobalCellCache cache)  {
-		CacheControlOverride.Tools.shutdownCacheQueue(this.cache);
-		this.cache.clearCache();
+	public synchronized void setCacheControl(VolatileGlobalCellCache cache)  {
+		if (cache == this.cache) return;
+		if (fetchShare != null) {
+			leaveSharedFetchScheduler();
+		} else if (this.cache != null) {
+			// Own queue and cache, which are not used anymore
+			if (sq != null) sq.shutdown();
+			this.cache.clearCache();
+		}
 		this.cache = cache;
 	}
 
@@ -0,0 +1,175 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the read of a single cell into independent chunks (planes, bands of
+ * native tiles) and reads them concurrently with several resources of a
+ * {@link ResourcePool}.
+ * <p>
+ * The calling thread always reads chunks with the resource it already holds.
+ * Helper tasks only use resources that are idle at the time they start: they
+ * never wait for the pool, so a cell can't be blocked by the helpers of
+ * another cell, and the cell is read sequentially when the pool is busy. A
+ * helper which fails with a connection or stream error destroys its resource
+ * instead of giving it back. When the cell fails, helpers which have not started
+ * are cancelled.
+ * <p>
+ * Helpers of all pools run on at most {@link #getMaxHelperThreads()} threads:
+ * a helper which starts once the cell has been read by other threads just
+ * returns. Helpers are part of the cell load which started them: the
+ * {@link SharedFetchScheduler} shares threads between datasets when cells are
+ * dispatched, and does not limit them further.
+ * <p>
+ * The number of resources used per cell is set with
+ * {@link ResourcePool#setIntraCellParallelism(int)}.
+ */
+public class ParallelCellReads {
+
+	/**
+	 * Reads a chunk of a cell with a resource
+	 * @param <R> resource type
+	 */
+	@FunctionalInterface
+	public interface ChunkReader<R> {
+		void read(R resource, int iChunk) throws Exception;
+	}
+
+	/**
+	 * Prepares a resource taken from the pool to read chunks of the cell (series, resolution level...)
+	 * @param <R> resource type
+	 */
+	@FunctionalInterface
+	public interface ResourcePreparer<R> {
+		void prepare(R resource) throws Exception;
+	}
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+
+	private static final int maxHelperThreads = Math.min(ReaderBudget.getInstance().getMax(),
+			Math.max(2, 2 * Runtime.getRuntime().availableProcessors()));
+
+	private static final ThreadPoolExecutor helpers = new ThreadPoolExecutor(maxHelperThreads, maxHelperThreads,
+			60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+		Thread thread = new Thread(r, "bdv-cell-reader-" + threadCounter.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		helpers.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return the number of threads running the helpers of all pools: two per core,
+	 * capped by the {@link ReaderBudget} set when this class is loaded, since each
+	 * helper holds a resource
+	 */
+	public static int getMaxHelperThreads() {
+		return maxHelperThreads;
+	}
+
+	/**
+	 * Reads all chunks of a cell, using up to {@link ResourcePool#getIntraCellParallelism()} resources
+	 *
+	 * @param pool the pool the resource comes from, helpers take their resources from it
+	 * @param resource a resource held and already prepared by the calling thread
+	 * @param nChunks number of chunks of the cell
+	 * @param preparer prepares the resources taken by helpers
+	 * @param chunkReader reads a chunk; chunks should write to disjoint parts of the cell
+	 * @param <R> resource type
+	 * @throws Exception if any chunk can't be read
+	 */
+	public static <R> void read(ResourcePool<R> pool, R resource, int nChunks,
+								ResourcePreparer<R> preparer, ChunkReader<R> chunkReader) throws Exception
+	{
+		int nHelpers = Math.min(pool.getIntraCellParallelism(), nChunks) - 1;
+		if (nHelpers <= 0) {
+			for (int iChunk = 0; iChunk < nChunks; iChunk++) {
+				chunkReader.read(resource, iChunk);
+			}
+			return;
+		}
+
+		AtomicInteger nextChunk = new AtomicInteger();
+		List<Future<?>> tasks = new ArrayList<>(nHelpers);
+		for (int i = 0; i < nHelpers; i++) {
+			tasks.add(helpers.submit(() -> {
+				if (nextChunk.get() >= nChunks) return null; // Nothing left
+				try (ResourcePool<R>.Lease lease = pool.tryLease()) {
+					if (lease == null) return null; // Pool busy: the calling thread will do it
+					try {
+						preparer.prepare(lease.get());
+						int iChunk;
+						while ((iChunk = nextChunk.getAndIncrement()) < nChunks) {
+							chunkReader.read(lease.get(), iChunk);
+						}
+					} catch (RuntimeException | IOException e) {
+						// Same rule as the calling thread: connection and stream errors leave the resource
+						// unusable, errors of the data or of the server (FormatException, ServerError) don't
+						lease.invalidate();
+						throw e;
+					}
+				}
+				return null;
+			}));
+		}
+
+		boolean done = false;
+		try {
+			int iChunk;
+			while ((iChunk = nextChunk.getAndIncrement()) < nChunks) {
+				chunkReader.read(resource, iChunk);
+			}
+
+			for (Future<?> task : tasks) {
+				try {
+					task.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+			done = true;
+		} finally {
+			if (!done) {
+				// The cell failed: running helpers stop after their chunk, queued ones don't start
+				nextChunk.set(nChunks);
+				for (Future<?> task : tasks) {
+					task.cancel(false);
+				}
+			}
+		}
+	}
+
+}
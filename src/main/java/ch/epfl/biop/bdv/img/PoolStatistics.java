@@ -0,0 +1,320 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Usage statistics of a {@link ResourcePool}: how long threads wait for a resource,
+ * how many resources are in use, created and destroyed.
+ * <p>
+ * Long waits with a pool at full utilization mean that the pool is too small; short
+ * waits with slow cell loading point to slow decoding or storage instead.
+ * <p>
+ * Available with {@link ResourcePool#getStatistics()}, and through JMX once
+ * {@link #registerMBean(String)} has been called (openers register the pool they
+ * create under the key the pool is memoized with, when they create it).
+ */
+public class PoolStatistics implements PoolStatisticsMBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(PoolStatistics.class);
+
+	/** JMX domain of the pool statistics MBeans */
+	public static final String JMX_DOMAIN = "ch.epfl.biop.bdv.img";
+
+	/** Upper bounds of the wait time histogram buckets, in milliseconds; the last bucket has no bound */
+	private static final long[] WAIT_BUCKETS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+	private final ResourcePool<?> pool;
+	private final LongAdder acquisitions = new LongAdder();
+	private final LongAdder created = new LongAdder();
+	private final LongAdder destroyed = new LongAdder();
+	private final LongAdder totalWaitNanos = new LongAdder();
+	private final LongAdder leases = new LongAdder();
+	private final LongAdder totalLeaseNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicInteger peakInUse = new AtomicInteger();
+	private final LongAdder[] waitHistogram = new LongAdder[WAIT_BUCKETS_MS.length + 1];
+	private volatile ObjectName objectName;
+
+	PoolStatistics(ResourcePool<?> pool) {
+		this.pool = pool;
+		for (int i = 0; i < waitHistogram.length; i++) {
+			waitHistogram[i] = new LongAdder();
+		}
+	}
+
+	void acquired(long waitNanos) {
+		acquisitions.increment();
+		totalWaitNanos.add(waitNanos);
+		long max;
+		do {
+			max = maxWaitNanos.get();
+		} while ((waitNanos > max) && !maxWaitNanos.compareAndSet(max, waitNanos));
+		long waitMs = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+		int bucket = 0;
+		while ((bucket < WAIT_BUCKETS_MS.length) && (waitMs >= WAIT_BUCKETS_MS[bucket])) bucket++;
+		waitHistogram[bucket].increment();
+		int inUse = getInUseCount();
+		int peak;
+		do {
+			peak = peakInUse.get();
+		} while ((inUse > peak) && !peakInUse.compareAndSet(peak, inUse));
+	}
+
+	void leaseClosed(long holdNanos) {
+		leases.increment();
+		totalLeaseNanos.add(holdNanos);
+	}
+
+	void created() {
+		created.increment();
+	}
+
+	void destroyed(int n) {
+		destroyed.add(n);
+	}
+
+	@Override
+	public String getPoolName() {
+		return pool.getName();
+	}
+
+	@Override
+	public int getMaxSize() {
+		return pool.getSize();
+	}
+
+	@Override
+	public int getCreatedCount() {
+		return pool.getCreatedCount();
+	}
+
+	@Override
+	public int getInUseCount() {
+		return Math.max(0, pool.getCreatedCount() - pool.getIdleCount());
+	}
+
+	@Override
+	public int getPeakInUseCount() {
+		return peakInUse.get();
+	}
+
+	@Override
+	public double getUtilization() {
+		return pool.getSize() == 0 ? 0 : (double) getInUseCount() / pool.getSize();
+	}
+
+	@Override
+	public long getAcquisitionCount() {
+		return acquisitions.sum();
+	}
+
+	@Override
+	public long getCreatedTotal() {
+		return created.sum();
+	}
+
+	@Override
+	public long getDestroyedTotal() {
+		return destroyed.sum();
+	}
+
+	@Override
+	public double getMeanWaitMs() {
+		long n = acquisitions.sum();
+		return n == 0 ? 0 : totalWaitNanos.sum() / 1e6 / n;
+	}
+
+	@Override
+	public long getMaxWaitMs() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+	}
+
+	/**
+	 * @return mean time a resource is held by a lease, which is the time needed to load a cell
+	 */
+	@Override
+	public double getMeanLeaseMs() {
+		long n = leases.sum();
+		return n == 0 ? 0 : totalLeaseNanos.sum() / 1e6 / n;
+	}
+
+	/**
+	 * @return number of closed leases, over which {@link #getMeanLeaseMs()} is averaged
+	 */
+	public long getLeaseCount() {
+		return leases.sum();
+	}
+
+	/**
+	 * @return number of acquisitions per wait time bucket, see {@link #getWaitHistogram()}
+	 */
+	public long[] getWaitCounts() {
+		long[] counts = new long[waitHistogram.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = waitHistogram[i].sum();
+		}
+		return counts;
+	}
+
+	/**
+	 * @return one line per wait time bucket, for instance "&lt; 5 ms: 12"
+	 */
+	@Override
+	public String[] getWaitHistogram() {
+		long[] counts = getWaitCounts();
+		String[] lines = new String[counts.length];
+		for (int i = 0; i < WAIT_BUCKETS_MS.length; i++) {
+			lines[i] = "< " + WAIT_BUCKETS_MS[i] + " ms: " + counts[i];
+		}
+		lines[WAIT_BUCKETS_MS.length] = ">= " + WAIT_BUCKETS_MS[WAIT_BUCKETS_MS.length - 1] + " ms: " +
+				counts[WAIT_BUCKETS_MS.length];
+		return lines;
+	}
+
+	@Override
+	public void reset() {
+		acquisitions.reset();
+		created.reset();
+		destroyed.reset();
+		totalWaitNanos.reset();
+		leases.reset();
+		totalLeaseNanos.reset();
+		maxWaitNanos.set(0);
+		peakInUse.set(getInUseCount());
+		for (LongAdder bucket : waitHistogram) {
+			bucket.reset();
+		}
+	}
+
+	/**
+	 * @return an immutable copy of the current statistics
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	/**
+	 * Registers these statistics in the platform MBean server. If another pool is already
+	 * registered under the same key (the same file opened by two datasets), an instance
+	 * number is added to the name of this MBean instead of replacing the other one.
+	 * @param key name of the MBean, typically the key the pool is memoized with
+	 */
+	public synchronized void registerMBean(String key) {
+		unregisterMBean();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			String baseName = JMX_DOMAIN + ":type=ResourcePool,name=" + ObjectName.quote(key);
+			ObjectName name = new ObjectName(baseName);
+			for (int instance = 2; ; instance++) {
+				try {
+					server.registerMBean(this, name);
+					break;
+				} catch (InstanceAlreadyExistsException e) {
+					name = new ObjectName(baseName + ",instance=" + instance);
+				}
+			}
+			objectName = name;
+		} catch (Exception e) {
+			logger.warn("Could not register the statistics of pool " + pool.getName() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes these statistics from the platform MBean server, if they were registered
+	 */
+	public synchronized void unregisterMBean() {
+		if (objectName == null) return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+		} catch (Exception e) {
+			logger.debug("Could not unregister " + objectName + ": " + e.getMessage());
+		}
+		objectName = null;
+	}
+
+	/**
+	 * Statistics of a pool at a given time
+	 */
+	public static final class Snapshot {
+
+		public final String poolName;
+		public final int maxSize;
+		public final int createdCount;
+		public final int inUseCount;
+		public final int peakInUseCount;
+		public final double utilization;
+		public final long acquisitionCount;
+		public final long createdTotal;
+		public final long destroyedTotal;
+		public final double meanWaitMs;
+		public final long maxWaitMs;
+		public final double meanLeaseMs;
+		/** Upper bounds of the wait buckets in milliseconds, the last bucket of {@link #waitCounts} has none */
+		public final long[] waitBucketsMs = WAIT_BUCKETS_MS.clone();
+		public final long[] waitCounts;
+
+		private Snapshot(PoolStatistics statistics) {
+			poolName = statistics.getPoolName();
+			maxSize = statistics.getMaxSize();
+			createdCount = statistics.getCreatedCount();
+			inUseCount = statistics.getInUseCount();
+			peakInUseCount = statistics.getPeakInUseCount();
+			utilization = statistics.getUtilization();
+			acquisitionCount = statistics.getAcquisitionCount();
+			createdTotal = statistics.getCreatedTotal();
+			destroyedTotal = statistics.getDestroyedTotal();
+			meanWaitMs = statistics.getMeanWaitMs();
+			maxWaitMs = statistics.getMaxWaitMs();
+			meanLeaseMs = statistics.getMeanLeaseMs();
+			waitCounts = statistics.getWaitCounts();
+		}
+
+		@Override
+		public String toString() {
+			return poolName + ": " + inUseCount + "/" + createdCount + " in use (max " + maxSize +
+					", peak " + peakInUseCount + "), " + acquisitionCount + " acquisitions, mean wait " +
+					String.format("%.2f", meanWaitMs) + " ms, max wait " + maxWaitMs + " ms, mean lease " +
+					String.format("%.2f", meanLeaseMs) + " ms, " +
+					createdTotal + " created, " + destroyedTotal + " destroyed";
+		}
+	}
+
+}
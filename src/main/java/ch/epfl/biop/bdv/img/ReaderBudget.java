@@ -0,0 +1,240 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM-wide budget of live resources (Bio-Formats readers, OMERO pixel stores...)
+ * shared by all dynamic {@link ResourcePool}s.
+ * <p>
+ * When the budget is exhausted, a pool which needs a new resource and has no idle
+ * one reclaims the least recently used idle resource of another pool, as long as that
+ * pool keeps its minimal size. If no pool has an idle resource to spare, the pool waits
+ * until a resource is given back or closed.
+ * <p>
+ * The cap is set with the {@link #MAX_PROPERTY} system property, or with
+ * {@link #setMax(int)}. Pools which are not dynamic create all their resources
+ * upfront: they are counted, but never refused.
+ * <p>
+ * Resources are counted until they are destroyed by their pool. The resources of a
+ * pool which is garbage collected without being shut down stop being counted once
+ * the collection is noticed, the next time the budget is used.
+ */
+public class ReaderBudget {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReaderBudget.class);
+
+	/** System property to set the maximal number of live resources of all pools in the JVM,
+	 *  e.g. {@code -Dbigdataviewer.pool.global.max=500}, 0 for no limit */
+	public static final String MAX_PROPERTY = "bigdataviewer.pool.global.max";
+
+	private static final ReaderBudget instance = new ReaderBudget(Integer.getInteger(MAX_PROPERTY, 0));
+
+	/**
+	 * @return the budget shared by all pools of the JVM
+	 */
+	public static ReaderBudget getInstance() {
+		return instance;
+	}
+
+	private final AtomicInteger live = new AtomicInteger();
+	private volatile int max;
+	// Weak: a pool which is never shut down should not be kept alive by the budget
+	private final Set<ResourcePool<?>> pools = Collections.newSetFromMap(new WeakHashMap<>());
+	// Live counts of the registered pools, released when their pool is garbage collected
+	private final ReferenceQueue<ResourcePool<?>> collectedPools = new ReferenceQueue<>();
+	private final Set<PoolReference> poolReferences = ConcurrentHashMap.newKeySet();
+
+	private ReaderBudget(int max) {
+		setMax(max);
+	}
+
+	/**
+	 * @param max maximal number of live resources of all pools, 0 or less for no limit.
+	 * Lowering it does not close resources: pools shrink as their idle resources are reclaimed.
+	 */
+	public void setMax(int max) {
+		this.max = (max <= 0) ? Integer.MAX_VALUE : max;
+	}
+
+	/**
+	 * @return maximal number of live resources of all pools, {@link Integer#MAX_VALUE} if not limited
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the number of live resources of all pools, idle or in use
+	 */
+	public int getLiveCount() {
+		releaseCollectedPools();
+		return live.get();
+	}
+
+	/**
+	 * @return a summary of the live resources of each pool, for logs
+	 */
+	public String getUsage() {
+		releaseCollectedPools();
+		StringBuilder builder = new StringBuilder();
+		builder.append(live.get()).append("/").append(max == Integer.MAX_VALUE ? "unlimited" : String.valueOf(max))
+				.append(" live resources");
+		for (ResourcePool<?> pool : getPools()) {
+			builder.append("\n\t").append(pool.getName()).append(": ")
+					.append(pool.getCreatedCount()).append("/").append(pool.getSize());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @param pool a new pool
+	 * @param liveCount number of resources of the pool counted in this budget, which is
+	 *                  released if the pool is garbage collected
+	 */
+	void register(ResourcePool<?> pool, AtomicInteger liveCount) {
+		releaseCollectedPools();
+		synchronized (pools) {
+			pools.add(pool);
+		}
+		poolReferences.add(new PoolReference(pool, liveCount, collectedPools));
+	}
+
+	void unregister(ResourcePool<?> pool) {
+		synchronized (pools) {
+			pools.remove(pool);
+		}
+	}
+
+	private List<ResourcePool<?>> getPools() {
+		synchronized (pools) {
+			return new ArrayList<>(pools);
+		}
+	}
+
+	/**
+	 * Reserves room for a new resource of a pool
+	 * @param requester the pool which creates the resource
+	 * @param mayReclaim whether idle resources of other pools may be closed to make room
+	 * @return true if the resource can be created, in which case {@link #release(int)}
+	 * should be called once it is closed
+	 */
+	boolean tryReserve(ResourcePool<?> requester, boolean mayReclaim) {
+		releaseCollectedPools();
+		while (true) {
+			int current = live.get();
+			if (current < max) {
+				if (live.compareAndSet(current, current + 1)) return true;
+				continue;
+			}
+			if (!mayReclaim || !reclaimOne(requester)) return false;
+		}
+	}
+
+	/**
+	 * Counts resources which are created whatever the budget
+	 * @param n number of resources
+	 */
+	void forceReserve(int n) {
+		if (live.addAndGet(n) > max) {
+			logger.warn("Global reader budget exceeded: " + getUsage());
+		}
+	}
+
+	/**
+	 * @param n number of resources which have been closed
+	 */
+	void release(int n) {
+		live.addAndGet(-n);
+	}
+
+	/**
+	 * Stops counting the resources of the pools which have been garbage collected
+	 */
+	private void releaseCollectedPools() {
+		Reference<? extends ResourcePool<?>> reference;
+		while ((reference = collectedPools.poll()) != null) {
+			PoolReference poolReference = (PoolReference) reference;
+			poolReferences.remove(poolReference);
+			int n = poolReference.liveCount.getAndSet(0);
+			if (n > 0) {
+				live.addAndGet(-n);
+				logger.debug("Released " + n + " resources of a pool which was not shut down");
+			}
+		}
+	}
+
+	/**
+	 * Closes the least recently used idle resource among the pools other than the requester.
+	 * Pools which are down to their minimal size keep their resources, as they would with
+	 * the idle time to live.
+	 * @return true if a resource was closed, false if no other pool has an idle resource to spare
+	 */
+	private boolean reclaimOne(ResourcePool<?> requester) {
+		// Bounded: a victim's idle resource may be taken by its own threads each time
+		for (int attempt = 0; attempt < 8; attempt++) {
+			ResourcePool<?> victim = null;
+			long oldest = Long.MAX_VALUE;
+			for (ResourcePool<?> pool : getPools()) {
+				if ((pool == requester) || (pool.getCreatedCount() <= pool.getMinSize())) continue;
+				long since = pool.getOldestIdleTime();
+				if (since < oldest) {
+					oldest = since;
+					victim = pool;
+				}
+			}
+			if (victim == null) return false;
+			// Fails if the resource has been taken in the meantime: look again
+			if (victim.closeOldestIdle()) {
+				logger.debug("Reader budget full, closed an idle resource of pool " + victim.getName() +
+						" for pool " + requester.getName());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final class PoolReference extends PhantomReference<ResourcePool<?>> {
+
+		final AtomicInteger liveCount;
+
+		PoolReference(ResourcePool<?> pool, AtomicInteger liveCount, ReferenceQueue<ResourcePool<?>> queue) {
+			super(pool, queue);
+			this.liveCount = liveCount;
+		}
+	}
+
+}
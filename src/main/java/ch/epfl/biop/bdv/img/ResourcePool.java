@@ -23,11 +23,22 @@
 
 package ch.epfl.biop.bdv.img;
 
-import java.util.ArrayList;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * <a href="https://www.dbtsai.com/blog/2013/java-concurrent-dynamic-object-pool-for-non-thread-safe-objects-using-blocking-queue/">...</a>
@@ -50,18 +61,131 @@ import java.util.function.Consumer;
  */
 public abstract class ResourcePool<Resource> {
 
-	private final BlockingQueue<Resource> pool;
-	private final ReentrantLock lock = new ReentrantLock();
-	private int createdObjects = 0;
+	private static final Logger logger = LoggerFactory.getLogger(ResourcePool.class);
+
+	/** System property to set after how many milliseconds of waiting for a resource a
+	 *  warning is logged, and then logged again, e.g. {@code -Dbigdataviewer.pool.starvation.warn.ms=30000} */
+	public static final String STARVATION_WARNING_MS_PROPERTY = "bigdataviewer.pool.starvation.warn.ms";
+
+	/** System property to set after how many seconds an idle resource of a dynamic pool is
+	 *  closed, e.g. {@code -Dbigdataviewer.pool.idle.ttl.s=600}. Defaults to 0, which keeps idle
+	 *  resources forever, as before time to live existed: re-opening a reader can take seconds */
+	public static final String IDLE_TTL_S_PROPERTY = "bigdataviewer.pool.idle.ttl.s";
+
+	/** System property to set how many resources of a dynamic pool are never closed for being
+	 *  idle, e.g. {@code -Dbigdataviewer.pool.min.size=2} */
+	public static final String MIN_SIZE_PROPERTY = "bigdataviewer.pool.min.size";
+
+	// Creates resources ahead of time for the pools which asked for it, one pool at a time
+	private static final ExecutorService warmUpExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "bdv-pool-warmup");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	// Evicts the resources idle for too long of all dynamic pools
+	private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "bdv-pool-sweeper");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Idle resources, used as a stack: the most recently used resource, which is the most
+	// likely to have its caches and buffers warm, is handed out first
+	private final ConcurrentLinkedDeque<IdleResource<Resource>> idle = new ConcurrentLinkedDeque<>();
+	// One permit per idle resource: a thread takes a permit before taking a resource
+	// from the stack, so the stack can't be empty when it polls it
+	private final Semaphore idlePermits = new Semaphore(0, true);
+	private final AtomicInteger createdObjects = new AtomicInteger();
+	private final boolean dynamicCreation;
 	final private int size;
+	private volatile String name;
+	private volatile int minSize;
+	private volatile long idleTtlMs;
+	private final AtomicBoolean sweeperScheduled = new AtomicBoolean();
+	private final PoolStatistics statistics = new PoolStatistics(this);
+	// Closes the resources destroyed once the pool is shut down, null before
+	private volatile Consumer<Resource> shutDownCloser;
+	// Notified when a resource is given back, or when a slot is freed
+	private final Object slotFreed = new Object();
+	// Guarded by slotFreed: incremented each time slotFreed is notified
+	private long slotEvents = 0;
+	// Threads in take(): resources are given back without touching slotFreed while there are none
+	private final AtomicInteger waiters = new AtomicInteger();
+	// Maximal wait between two attempts to create a resource when the reader budget is full
+	private static final long BUDGET_POLL_MS = 1000;
 
 	protected ResourcePool(int size, Boolean dynamicCreation) {
-		// Enable the fairness; otherwise, some threads may wait forever.
-		pool = new ArrayBlockingQueue<>(size, true);
 		this.size = size;
-		if (!dynamicCreation) {
-			lock.lock();
-		}
+		this.dynamicCreation = dynamicCreation;
+		this.name = getClass().getSimpleName();
+		this.minSize = Math.max(0, Math.min(size, Integer.getInteger(MIN_SIZE_PROPERTY, 1)));
+		this.idleTtlMs = Math.max(0, Long.getLong(IDLE_TTL_S_PROPERTY, 0)) * 1000;
+		ReaderBudget.getInstance().register(this, createdObjects);
+	}
+
+	/**
+	 * Resources of a dynamic pool are created on demand, up to {@link #getSize()}, when no idle
+	 * resource is available. Once they have been idle for longer than the time to live, they
+	 * are closed with {@link #destroyObject(Object)}, down to this minimal number of resources.
+	 * @param minSize number of resources which are never closed for being idle
+	 */
+	public void setMinSize(int minSize) {
+		this.minSize = Math.max(0, Math.min(size, minSize));
+	}
+
+	/**
+	 * @return the number of resources which are never closed for being idle
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * Sets after how long an idle resource is closed, see {@link #setMinSize(int)}. Has no effect
+	 * on pools which are not dynamic, since they can't create resources again. Idle resources
+	 * are kept forever unless {@link #IDLE_TTL_S_PROPERTY} or this method sets a time to live.
+	 * @param ttl idle time to live, 0 to keep idle resources forever
+	 * @param unit unit of the time to live
+	 */
+	public void setIdleTimeToLive(long ttl, TimeUnit unit) {
+		this.idleTtlMs = Math.max(0, unit.toMillis(ttl));
+	}
+
+	/**
+	 * @return the number of resources currently created by this pool, idle or in use
+	 */
+	public int getCreatedCount() {
+		return createdObjects.get();
+	}
+
+	/**
+	 * @return the number of idle resources of this pool
+	 */
+	public int getIdleCount() {
+		return idlePermits.availablePermits();
+	}
+
+	/**
+	 * @return the usage statistics of this pool; wait times include the creation of resources
+	 */
+	public PoolStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @param name name of the pool, used in logs (starvation, timeouts...)
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name of the pool, used in logs
+	 */
+	public String getName() {
+		return name;
 	}
 
 	/**
@@ -70,65 +194,545 @@ public abstract class ResourcePool<Resource> {
 	 */
 	public Resource takeOrCreate() throws Exception {
 		if (isClosed) throw new IllegalStateException("The pool has been closed");
-		if (createdObjects>0) {
-			return pool.take();
-		}
-		if (!lock.isLocked()) {
-			if (lock.tryLock()) {
-				try {
-					++createdObjects;
-					return createObject();
-				}
-				finally {
-					if (createdObjects < size) lock.unlock();
+		long start = System.nanoTime();
+		Resource resource = (createdObjects.get() > 0) ? null : tryCreate(idlePermits.availablePermits() == 0);
+		if (resource == null) resource = take(-1);
+		statistics.acquired(System.nanoTime() - start);
+		return resource;
+	}
+
+	/**
+	 * Prefer {@link #lease()}, which can't forget to give the resource back
+	 * @return a resource, which should be given back with {@link #recycle(Object)}
+	 * @throws Exception if the resource can't be created
+	 */
+	public Resource acquire() throws Exception {
+		if (isClosed) throw new IllegalStateException("The pool has been closed");
+		long start = System.nanoTime();
+		Resource resource = pollIdleOrCreate();
+		if (resource == null) resource = take(-1);
+		statistics.acquired(System.nanoTime() - start);
+		return resource;
+	}
+
+	/**
+	 * @return an idle resource if there is one, else a new resource if the pool is not full,
+	 * else null. Never waits.
+	 */
+	private Resource pollIdleOrCreate() {
+		if (idlePermits.tryAcquire()) return idle.pollFirst().resource;
+		return tryCreate(idlePermits.availablePermits() == 0);
+	}
+
+	/**
+	 * Acquires preferably an idle resource which matches a condition - for instance a
+	 * resource already in the state needed by the caller. If no idle resource matches,
+	 * behaves like {@link #acquire()}.
+	 * @param preferred condition of the resource to look for first
+	 * @return a resource, matching the condition if possible
+	 * @throws Exception if the resource can't be created
+	 */
+	public Resource acquire(Predicate<Resource> preferred) throws Exception {
+		if (isClosed) throw new IllegalStateException("The pool has been closed");
+		if (idlePermits.tryAcquire()) {
+			for (IdleResource<Resource> entry : idle) {
+				// removal fails if another thread took this resource in the meantime
+				if (preferred.test(entry.resource) && idle.removeFirstOccurrence(entry)) {
+					statistics.acquired(0);
+					return entry.resource;
 				}
 			}
+			idlePermits.release();
 		}
-		return pool.take();
+		return acquire();
 	}
 
-	public Resource acquire() throws Exception {
+	/**
+	 * @return an idle resource of the pool, or null if none is available right now.
+	 * Never waits for another thread to recycle a resource, and never creates one.
+	 */
+	public Resource tryAcquire() {
 		if (isClosed) throw new IllegalStateException("The pool has been closed");
-		if (!lock.isLocked()) {
-			if (lock.tryLock()) {
-				try {
-					++createdObjects;
-					return createObject();
-				}
-				finally {
-					if (createdObjects < size) lock.unlock();
-				}
+		if (!idlePermits.tryAcquire()) return null;
+		statistics.acquired(0);
+		return idle.pollFirst().resource;
+	}
+
+	/**
+	 * @return a lease on an idle resource of the pool, or null if none is available right now,
+	 * see {@link #tryAcquire()}
+	 */
+	public Lease tryLease() {
+		Resource resource = tryAcquire();
+		return (resource == null) ? null : new Lease(resource);
+	}
+
+	/**
+	 * Usage:
+	 * <pre>
+	 * try (ResourcePool&lt;R&gt;.Lease lease = pool.lease()) {
+	 *     R resource = lease.get();
+	 *     ...
+	 * }
+	 * </pre>
+	 * @return a lease on a resource, which gives the resource back to the pool when closed
+	 * @throws Exception if the resource can't be created
+	 */
+	public Lease lease() throws Exception {
+		return new Lease(acquire());
+	}
+
+	/**
+	 * @param preferred condition of the resource to look for first, see {@link #acquire(Predicate)}
+	 * @return a lease on a resource, which gives the resource back to the pool when closed
+	 * @throws Exception if the resource can't be created
+	 */
+	public Lease lease(Predicate<Resource> preferred) throws Exception {
+		return new Lease(acquire(preferred));
+	}
+
+	/**
+	 * @param timeout maximal time to wait for a resource
+	 * @param unit unit of the timeout
+	 * @return a lease on a resource, which gives the resource back to the pool when closed
+	 * @throws TimeoutException if no resource is available within the timeout
+	 * @throws Exception if the resource can't be created
+	 */
+	public Lease lease(long timeout, TimeUnit unit) throws Exception {
+		if (isClosed) throw new IllegalStateException("The pool has been closed");
+		long start = System.nanoTime();
+		Resource resource = pollIdleOrCreate();
+		if (resource == null) resource = take(unit.toMillis(timeout));
+		if (resource == null) {
+			throw new TimeoutException("No resource of pool " + name + " available after " +
+					timeout + " " + unit.toString().toLowerCase() + " (" + createdObjects.get() + "/" + size + " in use)");
+		}
+		statistics.acquired(System.nanoTime() - start);
+		return new Lease(resource);
+	}
+
+	/**
+	 * A resource taken from the pool. Closing the lease gives the resource back to the pool,
+	 * or destroys it if it has been invalidated, whatever happened while it was used.
+	 */
+	public final class Lease implements AutoCloseable {
+
+		private final Resource resource;
+		private final long start = System.nanoTime();
+		private boolean invalidated = false;
+		private boolean closed = false;
+
+		private Lease(Resource resource) {
+			this.resource = resource;
+		}
+
+		/**
+		 * @return the leased resource, which should not be used after the lease is closed
+		 */
+		public Resource get() {
+			return resource;
+		}
+
+		/**
+		 * Marks the resource as broken: it will be destroyed instead of being given back,
+		 * and a new resource will be created when needed
+		 */
+		public void invalidate() {
+			invalidated = true;
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			statistics.leaseClosed(System.nanoTime() - start);
+			if (invalidated) {
+				discard(resource);
+			} else {
+				recycle(resource);
 			}
 		}
-		return pool.take();
 	}
 
+	/**
+	 * Gives back a resource taken from the pool. A resource given back after the pool has
+	 * been shut down is closed with the closer given to {@link #shutDown(Consumer)}.
+	 * @param resource a resource of this pool
+	 */
 	public void recycle(Resource resource) {
-		// Will throws Exception when the queue is full,
-		// but it should never happen.
-		pool.add(resource);
+		if (isClosed) {
+			destroy(resource);
+			return;
+		}
+		idle.addFirst(new IdleResource<>(resource, System.currentTimeMillis()));
+		idlePermits.release();
+		signalWaiters();
+		if (isClosed) {
+			// Shut down while the resource was given back: it may have missed it
+			destroyIdle();
+			return;
+		}
+		if (dynamicCreation && (idleTtlMs > 0) && !sweeperScheduled.get() && sweeperScheduled.compareAndSet(false, true)) {
+			new IdleSweeper(this).schedule();
+		}
+	}
+
+	/**
+	 * Destroys a resource taken from the pool instead of giving it back: its slot
+	 * is freed, and a new resource will be created when needed.
+	 * @param resource a broken resource
+	 */
+	public void discard(Resource resource) {
+		if (!isClosed) logger.warn("Discarding a broken resource of pool " + name);
+		destroy(resource);
+	}
+
+	/**
+	 * Frees the slot of a resource, and its room in the {@link ReaderBudget}, then destroys it.
+	 * Called exactly once per created resource, before or after the pool is shut down.
+	 */
+	private void destroy(Resource resource) {
+		createdObjects.decrementAndGet();
+		ReaderBudget.getInstance().release(1);
+		statistics.destroyed(1);
+		try {
+			Consumer<Resource> closer = shutDownCloser;
+			if (closer != null) {
+				closer.accept(resource);
+			} else {
+				destroyObject(resource);
+			}
+		} catch (Exception e) {
+			logger.warn("Error while destroying a resource of pool " + name + ": " + e.getMessage());
+		}
+		// A thread waiting for a resource may create one in the freed slot
+		signalWaiters();
+	}
+
+	/**
+	 * Wakes up one thread waiting for a resource, after a resource is given back or destroyed.
+	 * A waiter registers before looking for a resource, and the resource is made available
+	 * before the waiters are counted: a thread which is not counted yet will find it.
+	 */
+	private void signalWaiters() {
+		if (waiters.get() == 0) return;
+		synchronized (slotFreed) {
+			slotEvents++;
+			// One resource or slot: one waiter
+			slotFreed.notify();
+		}
+	}
+
+	/**
+	 * Wakes up all threads waiting for a resource, when the pool is shut down
+	 */
+	private void signalAllWaiters() {
+		synchronized (slotFreed) {
+			slotEvents++;
+			slotFreed.notifyAll();
+		}
+	}
+
+	/**
+	 * Destroys all idle resources
+	 * @return the number of resources destroyed
+	 */
+	private int destroyIdle() {
+		int n = 0;
+		while (idlePermits.tryAcquire()) {
+			destroy(idle.pollFirst().resource);
+			n++;
+		}
+		return n;
 	}
 
 	public void createPool() {
 		if (isClosed) throw new IllegalStateException("The pool has been closed");
-		if (lock.isLocked()) {
+		if ((!dynamicCreation) && (createdObjects.get() == 0)) {
+			ReaderBudget.getInstance().forceReserve(size);
 			for (int i = 0; i < size; ++i) {
-				pool.add(createObject());
-				createdObjects++;
+				createdObjects.incrementAndGet();
+				recycle(createObject());
+				statistics.created();
+			}
+		}
+	}
+
+	/**
+	 * @param mayReclaim whether idle resources of other pools may be closed if the
+	 *                   {@link ReaderBudget} is exhausted
+	 * @return a new resource if the pool is not full yet, null otherwise
+	 */
+	private Resource tryCreate(boolean mayReclaim) {
+		if (!dynamicCreation) return null;
+		int created;
+		do {
+			created = createdObjects.get();
+			if (created >= size) return null;
+		} while (!createdObjects.compareAndSet(created, created + 1));
+		if (!ReaderBudget.getInstance().tryReserve(this, mayReclaim)) {
+			createdObjects.decrementAndGet();
+			return null;
+		}
+		try {
+			Resource resource = createObject();
+			statistics.created();
+			return resource;
+		} catch (RuntimeException | Error e) {
+			createdObjects.decrementAndGet();
+			ReaderBudget.getInstance().release(1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for an idle resource, or for a freed slot to create one, and logs a warning
+	 * each time the wait exceeds the starvation delay
+	 * @param timeoutMs maximal waiting time in milliseconds, negative to wait forever
+	 * @return the resource, or null after the timeout
+	 */
+	private Resource take(long timeoutMs) throws InterruptedException {
+		waiters.incrementAndGet();
+		boolean taken = false;
+		try {
+			Resource resource = waitForResource(timeoutMs);
+			taken = (resource != null);
+			return resource;
+		} finally {
+			waiters.decrementAndGet();
+			// This thread may have been woken up for a resource it doesn't take: pass it on
+			if (!taken) signalWaiters();
+		}
+	}
+
+	private Resource waitForResource(long timeoutMs) throws InterruptedException {
+		final long warningMs = Math.max(1, Long.getLong(STARVATION_WARNING_MS_PROPERTY, 10000));
+		final long start = System.currentTimeMillis();
+		long nextWarning = warningMs;
+		while (true) {
+			long events;
+			synchronized (slotFreed) {
+				events = slotEvents;
+			}
+			if (isClosed) throw new IllegalStateException("The pool has been closed");
+			if (idlePermits.tryAcquire()) return idle.pollFirst().resource;
+			Resource resource = tryCreate(idlePermits.availablePermits() == 0);
+			if (resource != null) return resource;
+			long waited = System.currentTimeMillis() - start;
+			if ((timeoutMs >= 0) && (waited >= timeoutMs)) return null;
+			if (waited >= nextWarning) {
+				logger.warn("Pool " + name + " is starved: waiting for a resource since " + waited +
+						" ms, " + createdObjects.get() + "/" + size + " resources are in use. " +
+						"Reader budget: " + ReaderBudget.getInstance().getUsage());
+				nextWarning += warningMs;
+			}
+			long wait = nextWarning - waited;
+			if (timeoutMs >= 0) wait = Math.min(wait, timeoutMs - waited);
+			// Woken up when a resource is given back or destroyed. When the pool is not full, the
+			// wait is bounded, since room may also be freed in the reader budget by another pool.
+			if (dynamicCreation && (createdObjects.get() < size)) wait = Math.min(wait, BUDGET_POLL_MS);
+			synchronized (slotFreed) {
+				if (slotEvents == events) slotFreed.wait(Math.max(1, wait));
 			}
 		}
 	}
 
+	/**
+	 * Closes the least recently used idle resources which have been idle for longer than the
+	 * time to live, as long as more than the minimal number of resources exist
+	 */
+	void evictIdle() {
+		final long ttlMs = idleTtlMs;
+		if (ttlMs <= 0) return;
+		final long deadline = System.currentTimeMillis() - ttlMs;
+		while (!isClosed && (createdObjects.get() > minSize)) {
+			if (getOldestIdleTime() > deadline) return;
+			if (!closeOldestIdle()) return;
+		}
+	}
+
+	/**
+	 * @return the time at which the least recently used idle resource was recycled,
+	 * {@link Long#MAX_VALUE} if no resource is idle
+	 */
+	long getOldestIdleTime() {
+		if (isClosed) return Long.MAX_VALUE;
+		// The stack is LIFO: its last element is the one idle for the longest time
+		IdleResource<Resource> oldest = idle.peekLast();
+		return (oldest == null) ? Long.MAX_VALUE : oldest.since;
+	}
+
+	/**
+	 * Closes the least recently used idle resource
+	 * @return false if no resource is idle, or if it was taken by another thread in the meantime
+	 */
+	boolean closeOldestIdle() {
+		if (isClosed) return false;
+		IdleResource<Resource> oldest = idle.peekLast();
+		if (oldest == null) return false;
+		if (!idlePermits.tryAcquire()) return false;
+		if (!idle.removeLastOccurrence(oldest)) {
+			idlePermits.release();
+			return false;
+		}
+		logger.debug("Closing a resource of pool " + name + " idle for " +
+				(System.currentTimeMillis() - oldest.since) + " ms");
+		destroy(oldest.resource);
+		return true;
+	}
+
 	protected abstract Resource createObject();
 
+	/**
+	 * Releases a resource which is discarded from the pool. Does nothing by default.
+	 * @param resource the resource to destroy
+	 */
+	protected void destroyObject(Resource resource) throws Exception {
+	}
+
+	private volatile int intraCellParallelism = 1;
+
+	/**
+	 * Sets how many resources of this pool may read a single cell concurrently.
+	 * See {@link ParallelCellReads}.
+	 * @param parallelism maximal number of resources used for one cell, 1 to read cells sequentially
+	 */
+	public void setIntraCellParallelism(int parallelism) {
+		this.intraCellParallelism = Math.max(1, Math.min(parallelism, size));
+	}
+
+	/**
+	 * @return the maximal number of resources of this pool which may read a single cell concurrently
+	 */
+	public int getIntraCellParallelism() {
+		return intraCellParallelism;
+	}
+
+	/**
+	 * @return the maximal number of resources of this pool
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	private volatile int warmUpSize = 0;
+	private volatile boolean warmUpCancelled = false;
+	private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+
+	/**
+	 * Sets how many resources are created in the background by {@link #startWarmUp()},
+	 * so that the first cells shown don't wait for the creation of each resource
+	 * @param warmUpSize number of resources to create ahead of time, 0 (default) to create them on demand only
+	 */
+	public void setWarmUpSize(int warmUpSize) {
+		this.warmUpSize = Math.max(0, Math.min(warmUpSize, size));
+	}
+
+	/**
+	 * @return the number of resources created ahead of time by {@link #startWarmUp()}
+	 */
+	public int getWarmUpSize() {
+		return warmUpSize;
+	}
+
+	/**
+	 * Grows the pool to its warm-up size with a low priority background task. Only the first
+	 * call has an effect: loaders call it when they load their first cell, so that pools which
+	 * are never displayed are not warmed up. Idle resources of other pools are never reclaimed
+	 * for the warm-up.
+	 */
+	public void startWarmUp() {
+		if ((warmUpSize == 0) || warmUpStarted.get() || !warmUpStarted.compareAndSet(false, true)) return;
+		if (!dynamicCreation || isClosed || warmUpCancelled) return;
+		warmUpExecutor.submit(this::warmUp);
+	}
+
+	/**
+	 * Stops the warm-up of the pool; the resources already created stay in the pool
+	 */
+	public void cancelWarmUp() {
+		warmUpCancelled = true;
+	}
+
+	private void warmUp() {
+		while (!warmUpCancelled && !isClosed && (createdObjects.get() < warmUpSize)) {
+			Resource resource;
+			try {
+				resource = tryCreate(false);
+			} catch (RuntimeException e) {
+				logger.warn("Warm-up of pool " + name + " stopped: " + e.getMessage());
+				return;
+			}
+			if (resource == null) return; // Full, or no room left in the reader budget
+			// Closed right away if the pool has been shut down in the meantime
+			recycle(resource);
+		}
+	}
+
 	volatile boolean isClosed = false;
 
+	/**
+	 * Closes the idle resources of the pool with the closer. Resources in use are closed
+	 * with the same closer when they are given back or discarded, and their slot in the
+	 * {@link ReaderBudget} is freed then.
+	 * @param closer closes a resource
+	 */
 	public synchronized void shutDown(Consumer<Resource> closer) {
 		if (!isClosed) {
+			shutDownCloser = closer;
 			isClosed = true;
-			ArrayList<Resource> resources = new ArrayList<>(size);
-			pool.drainTo(resources);
-			resources.forEach(closer);
+			warmUpCancelled = true;
+			destroyIdle();
+			statistics.unregisterMBean();
+			ReaderBudget.getInstance().unregister(this);
+			signalAllWaiters();
+		}
+	}
+
+	private static final class IdleResource<Resource> {
+
+		final Resource resource;
+		final long since;
+
+		IdleResource(Resource resource, long since) {
+			this.resource = resource;
+			this.since = since;
+		}
+	}
+
+	/**
+	 * Periodic eviction of the idle resources of a pool. Only weakly references the pool,
+	 * and stops once the pool is closed or garbage collected.
+	 */
+	private static final class IdleSweeper implements Runnable {
+
+		private static final long PERIOD_MS = 5000;
+
+		private final WeakReference<ResourcePool<?>> poolReference;
+		private volatile ScheduledFuture<?> future;
+
+		IdleSweeper(ResourcePool<?> pool) {
+			this.poolReference = new WeakReference<>(pool);
+		}
+
+		void schedule() {
+			future = sweeper.scheduleWithFixedDelay(this, PERIOD_MS, PERIOD_MS, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void run() {
+			ResourcePool<?> pool = poolReference.get();
+			if ((pool == null) || pool.isClosed) {
+				ScheduledFuture<?> f = future;
+				if (f != null) f.cancel(false);
+				return;
+			}
+			try {
+				pool.evictIdle();
+			} catch (Throwable t) {
+				// An exception would cancel the periodic task
+				logger.warn("Error while evicting idle resources of pool " + pool.getName() + ": " + t.getMessage());
+			}
 		}
 	}
 
@@ -0,0 +1,300 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img;
+
+import bdv.img.cache.VolatileGlobalCellCache;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide cell fetching shared by the image loaders which join it: a bounded
+ * number of threads loading the cells of all joined datasets.
+ * <p>
+ * Loaders join through {@link CacheControlOverride#setCacheControl(VolatileGlobalCellCache)}.
+ * Each dataset gets a {@link Share}, with a queue and a cache of its own: cells are keyed by
+ * setup, level and position, so the cells of different datasets would collide in a single
+ * cache, and the priorities of a dataset only order its own cells. Only the threads are
+ * bounded across datasets: the cached cells of each dataset are softly referenced, so
+ * together they are bounded by the heap, as with one cache per dataset without the scheduler.
+ * <p>
+ * A single scheduler thread hands the cells of all queues to the shared threads. Each time a
+ * thread is free, it takes the next cell of the dataset which loads the fewest cells for its
+ * weight, among the datasets with queued cells, so datasets get threads in proportion to their
+ * weights while they all have cells to load, and a dataset alone gets all of them. Cells are
+ * never held back once they are handed to a thread, so cells read in parallel inside a cell
+ * load (see {@link ParallelCellReads}) and readers taken directly from a {@link ResourcePool}
+ * are part of the cell which was dispatched, and are not limited further.
+ */
+public class SharedFetchScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(SharedFetchScheduler.class);
+
+	/** System property to make all {@link OpenersImageLoader}s join the shared scheduler when
+	 *  they are created, e.g. {@code -Dbigdataviewer.fetcher.shared=true} */
+	public static final String SHARED_PROPERTY = "bigdataviewer.fetcher.shared";
+
+	/** System property to set the number of threads of the shared scheduler, e.g.
+	 *  {@code -Dbigdataviewer.fetcher.shared.threads=16} */
+	public static final String THREADS_PROPERTY = "bigdataviewer.fetcher.shared.threads";
+
+	private static volatile SharedFetchScheduler instance;
+
+	/**
+	 * @return the scheduler shared by the whole JVM, created on first call
+	 */
+	public static SharedFetchScheduler getInstance() {
+		if (instance == null) {
+			synchronized (SharedFetchScheduler.class) {
+				if (instance == null) {
+					int threads = Integer.getInteger(THREADS_PROPERTY,
+							Math.max(2, 2 * Runtime.getRuntime().availableProcessors()));
+					instance = new SharedFetchScheduler(threads, Integer.getInteger(
+							OpenersImageLoader.FETCHER_PRIORITIES_PROPERTY, OpenersImageLoader.DEFAULT_NUM_PRIORITIES));
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @return true if loaders should join the shared scheduler when they are created, see {@link #SHARED_PROPERTY}
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(SHARED_PROPERTY);
+	}
+
+	private final int numThreads;
+	private final int numPriorities;
+	private final ExecutorService fetchers;
+	private final Thread dispatcher;
+	// Guarded by this, which is also the monitor on which the dispatcher waits for a cell and a thread
+	private final List<Share> shares = new ArrayList<>();
+	private int running = 0;
+	private long dispatchCount = 0;
+
+	private SharedFetchScheduler(int numThreads, int numPriorities) {
+		this.numThreads = Math.max(1, numThreads);
+		this.numPriorities = Math.max(1, numPriorities);
+		AtomicInteger fetcherCount = new AtomicInteger();
+		this.fetchers = Executors.newFixedThreadPool(this.numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "shared-fetcher-" + fetcherCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.dispatcher = new Thread(this::dispatch, "shared-fetch-dispatcher");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+		logger.debug("Shared fetch scheduler: " + this.numThreads + " threads, " + this.numPriorities + " priorities");
+	}
+
+	/**
+	 * @return the number of threads loading cells for all joined loaders
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * @return the number of priorities of the queues of the scheduler, which joined loaders
+	 * should spread their resolution levels over
+	 */
+	public int getNumPriorities() {
+		return numPriorities;
+	}
+
+	/**
+	 * Makes a loader load its cells with the threads of the scheduler
+	 * @param loader the loader, which gets the cache of its share and releases its own
+	 * @param name name of the dataset, for logs
+	 * @param weight relative share of the threads given to the dataset
+	 * @return the share of the dataset, to give back with {@link #leave(Share)}
+	 */
+	public Share join(CacheControlOverride loader, String name, double weight) {
+		Share share = new Share(name, weight);
+		synchronized (this) {
+			shares.add(share);
+		}
+		loader.setCacheControl(share.cache);
+		logger.debug("Dataset " + name + " joined the shared fetch scheduler with weight " + weight);
+		return share;
+	}
+
+	/**
+	 * Stops dispatching the cells of a dataset and clears its cache. Cells which are being
+	 * loaded finish on their thread.
+	 * @param share the share returned by {@link #join(CacheControlOverride, String, double)}
+	 */
+	public void leave(Share share) {
+		synchronized (this) {
+			shares.remove(share);
+		}
+		share.queue.clear();
+		share.cache.clearCache();
+		logger.debug("Dataset " + share.name + " left the shared fetch scheduler");
+	}
+
+	// Called by the queue of a share once a cell is queued
+	private synchronized void cellQueued(Share share) {
+		share.hasCells = true;
+		notifyAll();
+	}
+
+	private synchronized void releaseThread(Share share) {
+		running--;
+		share.running--;
+		notifyAll();
+	}
+
+	// Only this thread waits, for a free thread and a queued cell: fetchers never wait
+	private void dispatch() {
+		while (true) {
+			Share share;
+			Callable<?> cellLoad;
+			synchronized (this) {
+				try {
+					while (true) {
+						if (running < numThreads) {
+							share = nextShare();
+							if (share == null) {
+								wait();
+								continue;
+							}
+							cellLoad = share.queue.poll(0, TimeUnit.MILLISECONDS);
+							if (cellLoad != null) break;
+							share.hasCells = false; // Looks again once a cell is queued
+						} else {
+							wait();
+						}
+					}
+				} catch (InterruptedException e) {
+					logger.warn("The shared fetch dispatcher was interrupted: joined datasets stop loading cells");
+					return;
+				}
+				running++;
+				share.running++;
+				share.lastDispatch = ++dispatchCount;
+			}
+			Share loadedShare = share;
+			Callable<?> load = cellLoad;
+			try {
+				fetchers.execute(() -> {
+					try {
+						load.call();
+					} catch (Exception e) {
+						logger.warn("Error while loading a cell of " + loadedShare.name + ": " + e.getMessage());
+					} finally {
+						releaseThread(loadedShare);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				releaseThread(loadedShare);
+				logger.warn("Could not load a cell of " + loadedShare.name + ": " + e.getMessage());
+			}
+		}
+	}
+
+	// Called with the lock of the scheduler held: the share with queued cells which loads the
+	// fewest cells for its weight, the one served the longest ago on ties
+	private Share nextShare() {
+		Share next = null;
+		for (Share share : shares) {
+			if (!share.hasCells) continue;
+			if (next == null) {
+				next = share;
+				continue;
+			}
+			double load = share.running / share.weight;
+			double nextLoad = next.running / next.weight;
+			if ((load < nextLoad) || ((load == nextLoad) && (share.lastDispatch < next.lastDispatch))) {
+				next = share;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Share of the threads of the scheduler given to a dataset, with the queue and the
+	 * cache of the dataset
+	 */
+	public final class Share {
+
+		private final String name;
+		private final BlockingFetchQueues<Callable<?>> queue;
+		private final VolatileGlobalCellCache cache;
+		// Guarded by the scheduler
+		private double weight;
+		private int running = 0;
+		private boolean hasCells = false;
+		private long lastDispatch = 0;
+
+		private Share(String name, double weight) {
+			this.name = name;
+			this.weight = weight > 0 ? weight : 1;
+			this.queue = new BlockingFetchQueues<Callable<?>>(numPriorities, numThreads) {
+				@Override
+				public void put(Callable<?> element, int priority, boolean enqueuToFront) {
+					super.put(element, priority, enqueuToFront);
+					cellQueued(Share.this);
+				}
+			};
+			this.cache = new VolatileGlobalCellCache(queue);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the cache of the dataset, whose cells are loaded by the threads of the scheduler
+		 */
+		public VolatileGlobalCellCache getCache() {
+			return cache;
+		}
+
+		public double getWeight() {
+			synchronized (SharedFetchScheduler.this) {
+				return weight;
+			}
+		}
+
+		/**
+		 * @param weight relative share of the threads given to the dataset
+		 */
+		public void setWeight(double weight) {
+			synchronized (SharedFetchScheduler.this) {
+				this.weight = weight > 0 ? weight : 1;
+			}
+		}
+	}
+
+}
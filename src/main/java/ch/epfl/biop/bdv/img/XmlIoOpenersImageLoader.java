@@ -23,6 +23,7 @@
 package ch.epfl.biop.bdv.img;
 
 import ch.epfl.biop.bdv.img.opener.OpenerSettings;
+import ch.epfl.biop.bdv.img.opener.OpenerStructure;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import mpicbg.spim.data.XmlHelpers;
@@ -52,6 +53,7 @@ public class XmlIoOpenersImageLoader implements
 
 	public static final String OPENERS_TAG = "openers";
 	public static final String VERSION_TAG = "version";
+	public static final String STRUCTURES_TAG = "structures";
 
 	/**
 	 * Write QuPathImageOpener class in a xml file
@@ -70,6 +72,9 @@ public class XmlIoOpenersImageLoader implements
 				.create().toJson(imgLoader.getOpenerSettings().toArray(new OpenerSettings[0]));
 		elem.addContent(XmlHelpers.textElement(VERSION_TAG, VersionUtils.getVersion(OpenersImageLoader.class)));
 		elem.addContent(XmlHelpers.textElement(OPENERS_TAG, allOpeners));
+		// Structure of the images, to reopen them without file access until pixels are read
+		String allStructures = new GsonBuilder().serializeSpecialFloatingPointValues().create().toJson(imgLoader.getOpenerStructures().toArray(new OpenerStructure[0]));
+		elem.addContent(XmlHelpers.textElement(STRUCTURES_TAG, allStructures));
 		return elem;
 	}
 
@@ -93,6 +98,16 @@ public class XmlIoOpenersImageLoader implements
 			openerSettingsList.forEach(opener ->
 					opener.context(Services.commandService.context())
 							.skipMeta());
+			if (Boolean.getBoolean(OpenersImageLoader.LAZY_OPENERS_PROPERTY)) {
+				// Files are opened when their sources are first displayed, or in the background,
+				// or when their pixels are read if their structure has been saved
+				List<OpenerStructure> structures = null;
+				if (elem.getChild(STRUCTURES_TAG) != null) {
+					structures = Arrays.asList(new Gson().fromJson(XmlHelpers.getText(elem, STRUCTURES_TAG), OpenerStructure[].class));
+				}
+				return new OpenersImageLoader(openerSettingsList,
+						OpenersImageLoader.createLazyOpeners(openerSettingsList, structures), sequenceDescription);
+			}
 			return new OpenersImageLoader(openerSettingsList, sequenceDescription);
 		}
 		catch (final Exception e) {
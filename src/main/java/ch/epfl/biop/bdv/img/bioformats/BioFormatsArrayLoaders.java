@@ -23,15 +23,28 @@
 package ch.epfl.biop.bdv.img.bioformats;
 
 import bdv.img.cache.CacheArrayLoader;
+import ch.epfl.biop.bdv.img.ParallelCellReads;
 import ch.epfl.biop.bdv.img.ResourcePool;
+import loci.formats.ChannelSeparator;
+import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
+import loci.formats.Memoizer;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileDoubleArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
 
 // Copied from N5 Array Loader
 
@@ -46,11 +59,202 @@ import java.nio.ByteOrder;
  * - rgb (24 bits in Bio-Formats, translated to {@link net.imglib2.type.numeric.ARGBType} 32 bits)
  * - signed 32-bits integer
  * <p>
+ * Planes are read with {@link IFormatReader#openBytes(int, byte[], int, int, int, int)}
+ * into a buffer which is reused by each fetcher thread, and decoded straight into
+ * the primitive array backing the volatile array: no intermediate array is allocated per cell.
+ * <p>
+ * When RGB channels are split with a {@link ChannelSeparator}, each RGB tile is decoded
+ * once in a {@link DecodedTileCache} shared by the loaders of all channels, instead of once
+ * per channel.
+ * <p>
+ * When channels are co-loaded (see {@link ch.epfl.biop.bdv.img.opener.OpenerSettings#coLoadChannels(boolean)}),
+ * reading a plane of a channel also reads the same plane of all other channels while the reader
+ * is positioned on the tile. These sibling planes are kept until the loader of their channel asks for them.
+ * <p>
  * See also {@link BioFormatsSetupLoader}
  *
  */
 public class BioFormatsArrayLoaders {
 
+	/**
+	 * Planes bigger than this number of bytes are read into a temporary buffer
+	 * instead of the thread reusable one, in order not to retain too much memory
+	 * per fetcher thread
+	 */
+	final static int MAX_RETAINED_PLANE_BUFFER_BYTES = 16 * 1024 * 1024;
+
+	private static final ThreadLocal<byte[]> planeBuffer = ThreadLocal.withInitial(() -> new byte[0]);
+
+	/**
+	 * @param nBytes minimal size of the buffer
+	 * @return a buffer of at least nBytes, reused between calls of the same thread when possible
+	 */
+	static byte[] getPlaneBuffer(int nBytes) {
+		if (nBytes > MAX_RETAINED_PLANE_BUFFER_BYTES) return new byte[nBytes];
+		byte[] buffer = planeBuffer.get();
+		if (buffer.length < nBytes) {
+			buffer = new byte[nBytes];
+			planeBuffer.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Converts the raw bytes of a plane into a destination primitive array
+	 * @param <P> primitive array type (byte[], short[], ...)
+	 */
+	@FunctionalInterface
+	interface PlaneDecoder<P> {
+		/**
+		 * @param src raw bytes, as given by the reader
+		 * @param nBytes number of valid bytes in src
+		 * @param dest primitive destination array
+		 * @param destOffset index of the first element to write in dest
+		 */
+		void decode(byte[] src, int nBytes, P dest, int destOffset);
+	}
+
+	static PlaneDecoder<byte[]> byteDecoder() {
+		return (src, nBytes, dest, destOffset) -> System.arraycopy(src, 0, dest, destOffset, nBytes);
+	}
+
+	static PlaneDecoder<short[]> shortDecoder(ByteOrder byteOrder) {
+		return (src, nBytes, dest, destOffset) -> ByteBuffer.wrap(src, 0, nBytes).order(byteOrder)
+				.asShortBuffer().get(dest, destOffset, nBytes / 2);
+	}
+
+	static PlaneDecoder<int[]> intDecoder(ByteOrder byteOrder) {
+		return (src, nBytes, dest, destOffset) -> ByteBuffer.wrap(src, 0, nBytes).order(byteOrder)
+				.asIntBuffer().get(dest, destOffset, nBytes / 4);
+	}
+
+	static PlaneDecoder<float[]> floatDecoder(ByteOrder byteOrder) {
+		return (src, nBytes, dest, destOffset) -> ByteBuffer.wrap(src, 0, nBytes).order(byteOrder)
+				.asFloatBuffer().get(dest, destOffset, nBytes / 4);
+	}
+
+	/**
+	 * Creates the decoder of a cell from the reader, once it is set on the series and
+	 * resolution level of the cell
+	 * @param <P> primitive array type
+	 */
+	@FunctionalInterface
+	interface DecoderFactory<P> {
+		PlaneDecoder<P> create(IFormatReader reader) throws Exception;
+	}
+
+	/**
+	 * Maps linearly float pixels in [min, max] onto [0, 65535], values outside are clamped, NaN gives 0
+	 */
+	static PlaneDecoder<short[]> floatToUnsignedShortDecoder(ByteOrder byteOrder, double min, double max) {
+		final double scale = 65535.0 / (max - min);
+		return (src, nBytes, dest, destOffset) -> {
+			FloatBuffer floats = ByteBuffer.wrap(src, 0, nBytes).order(byteOrder).asFloatBuffer();
+			int nElements = nBytes / 4;
+			for (int i = 0; i < nElements; i++) {
+				double v = (floats.get(i) - min) * scale;
+				dest[destOffset + i] = (short) ((v > 0) ? ((v < 65535) ? (int) (v + 0.5) : 65535) : 0);
+			}
+		};
+	}
+
+	/**
+	 * Maps linearly unsigned short pixels in [min, max] onto [0, 255], values outside are clamped
+	 */
+	static PlaneDecoder<byte[]> unsignedShortToUnsignedByteDecoder(ByteOrder byteOrder, double min, double max) {
+		final double scale = 255.0 / (max - min);
+		return (src, nBytes, dest, destOffset) -> {
+			ShortBuffer shorts = ByteBuffer.wrap(src, 0, nBytes).order(byteOrder).asShortBuffer();
+			int nElements = nBytes / 2;
+			for (int i = 0; i < nElements; i++) {
+				double v = ((shorts.get(i) & 0xffff) - min) * scale;
+				dest[destOffset + i] = (byte) ((v > 0) ? ((v < 255) ? (int) (v + 0.5) : 255) : 0);
+			}
+		};
+	}
+
+	static PlaneDecoder<float[]> doubleToFloatDecoder(ByteOrder byteOrder) {
+		return (src, nBytes, dest, destOffset) -> {
+			DoubleBuffer doubles = ByteBuffer.wrap(src, 0, nBytes).order(byteOrder).asDoubleBuffer();
+			int nElements = nBytes / 8;
+			for (int i = 0; i < nElements; i++) {
+				dest[destOffset + i] = (float) doubles.get(i);
+			}
+		};
+	}
+
+	static PlaneDecoder<double[]> doubleDecoder(ByteOrder byteOrder) {
+		return (src, nBytes, dest, destOffset) -> ByteBuffer.wrap(src, 0, nBytes).order(byteOrder)
+				.asDoubleBuffer().get(dest, destOffset, nBytes / 8);
+	}
+
+	/**
+	 * Packs 8 bits RGB(A) pixels into ARGB ints, in a single pass over the plane
+	 * @param interleaved true if components are interleaved (RGBRGB...), false if planar (RR..GG..BB..)
+	 * @param hasAlphaChannel true if there is a fourth, alpha, component
+	 * @return the decoder
+	 */
+	static PlaneDecoder<int[]> rgbDecoder(boolean interleaved, boolean hasAlphaChannel) {
+		if (interleaved) {
+			if (hasAlphaChannel) {
+				return (src, nBytes, dest, destOffset) -> {
+					int nElements = nBytes / 4;
+					int idxPx = 0;
+					for (int i = destOffset; i < destOffset + nElements; i++) {
+						dest[i] = (((255 - src[idxPx + 3]) & 0xff) << 24) | ((src[idxPx] & 0xff) << 16) |
+								((src[idxPx + 1] & 0xff) << 8) | (src[idxPx + 2] & 0xff);
+						idxPx += 4;
+					}
+				};
+			}
+			return (src, nBytes, dest, destOffset) -> {
+				int nElements = nBytes / 3;
+				int idxPx = 0;
+				for (int i = destOffset; i < destOffset + nElements; i++) {
+					dest[i] = (0xff << 24) | ((src[idxPx] & 0xff) << 16) |
+							((src[idxPx + 1] & 0xff) << 8) | (src[idxPx + 2] & 0xff);
+					idxPx += 3;
+				}
+			};
+		}
+		if (hasAlphaChannel) {
+			return (src, nBytes, dest, destOffset) -> {
+				int nElements = nBytes / 4;
+				int gOffset = nElements;
+				int bOffset = 2 * nElements;
+				int aOffset = 3 * nElements;
+				for (int idxPx = 0; idxPx < nElements; idxPx++) {
+					dest[destOffset + idxPx] = (((255 - src[idxPx + aOffset]) & 0xff) << 24) |
+							((src[idxPx] & 0xff) << 16) | ((src[idxPx + gOffset] & 0xff) << 8) |
+							(src[idxPx + bOffset] & 0xff);
+				}
+			};
+		}
+		return (src, nBytes, dest, destOffset) -> {
+			int nElements = nBytes / 3;
+			int gOffset = nElements;
+			int bOffset = 2 * nElements;
+			for (int idxPx = 0; idxPx < nElements; idxPx++) {
+				dest[destOffset + idxPx] = ((src[idxPx] & 0xff) << 16) | ((src[idxPx + gOffset] & 0xff) << 8) |
+						(src[idxPx + bOffset] & 0xff);
+			}
+		};
+	}
+
+	/**
+	 * @param reader a reader, possibly wrapped in a {@link Memoizer}
+	 * @return the {@link ChannelSeparator} wrapping the reader, or null if there is none
+	 */
+	static ChannelSeparator getChannelSeparator(IFormatReader reader) {
+		if (reader instanceof Memoizer) {
+			reader = ((Memoizer) reader).getReader();
+		}
+		if (reader instanceof ChannelSeparator) {
+			return (ChannelSeparator) reader;
+		}
+		return null;
+	}
+
 	/**
 	 * Generic class with the necessary elements to read and load pixels
 	 */
@@ -60,6 +264,25 @@ public class BioFormatsArrayLoaders {
 		final protected int channel;
 		final protected int iSeries;
 
+		// Shared between the loaders of all channels of a split RGB image, null if channels are not split
+		protected DecodedTileCache splitRGBTileCache = null;
+
+		// Planes read together with another channel of the same tile, null if co-loading is disabled
+		protected DecodedTileCache siblingPlaneCache = null;
+
+		// Decoded native tiles shared by all loaders of the opener, null if disabled
+		protected DecodedTileCache nativeTileCache = null;
+
+		// Counts the series or resolution changes of the readers, shared by all loaders of the pool
+		protected LongAdder readerRepositions = new LongAdder();
+
+		// Geometry of each resolution level read so far, to find co-loaded planes without a reader
+		private final Map<Integer, LevelGeometry> levelGeometries = new ConcurrentHashMap<>();
+
+		// Decoder created from the reader for each resolution level read so far, to decode co-loaded
+		// planes without a reader. A loader always creates its decoders with the same factory.
+		private final Map<Integer, PlaneDecoder<?>> levelDecoders = new ConcurrentHashMap<>();
+
 		private BioformatsArrayLoader(ResourcePool<IFormatReader> readerPool, int channel, int iSeries)
 		{
 			this.readerPool = readerPool;
@@ -67,6 +290,396 @@ public class BioFormatsArrayLoaders {
 			this.iSeries = iSeries;
 		}
 
+		/**
+		 * Reads the opener wide resources and options that are shared between loaders.
+		 * Should be called before the loader is used.
+		 * @param opener the opener this loader reads from
+		 */
+		void configure(BioFormatsOpener opener) {
+			this.splitRGBTileCache = opener.getSplitRGBTileCache();
+			this.siblingPlaneCache = opener.getSiblingPlaneCache();
+			this.nativeTileCache = opener.getNativeTileCache();
+			this.readerRepositions = opener.getReaderRepositionCounter();
+		}
+
+		/**
+		 * @param level resolution level
+		 * @return a lease on a reader of the pool, preferably one which is already set on the
+		 * series of this loader and on this resolution level, positioned on them
+		 * @throws Exception if the reader can't be acquired
+		 */
+		protected ResourcePool<IFormatReader>.Lease leaseReader(int level) throws Exception {
+			readerPool.startWarmUp(); // No-op after the first cell
+			ResourcePool<IFormatReader>.Lease lease = readerPool.lease(
+					r -> (r.getSeries() == iSeries) && (r.getResolution() == level));
+			try {
+				position(lease.get(), level);
+			} catch (RuntimeException e) {
+				lease.invalidate();
+				lease.close();
+				throw e;
+			}
+			return lease;
+		}
+
+		/**
+		 * Sets the reader on the series of this loader and on the resolution level,
+		 * only if it is not already there: changing the series or the resolution
+		 * level may reset internal states of the reader (tile offsets, decoders...)
+		 */
+		protected void position(IFormatReader reader, int level) {
+			if (reader.getSeries() != iSeries) {
+				reader.setSeries(iSeries); // also resets the resolution level
+				reader.setResolution(level);
+				readerRepositions.increment();
+			} else if (reader.getResolution() != level) {
+				reader.setResolution(level);
+				readerRepositions.increment();
+			}
+		}
+
+		/**
+		 * Reads a plane into the buffer, by extracting the requested channel of the RGB
+		 * tile shared by all the channels of the split RGB image
+		 */
+		private void openSplitRGBBytes(ChannelSeparator separator, int no, byte[] buffer,
+									   int x, int y, int w, int h) throws Exception
+		{
+			IFormatReader rgbReader = separator.getReader();
+			int nRGBChannels = rgbReader.getSizeC() / rgbReader.getEffectiveSizeC();
+			int source = separator.getOriginalIndex(no);
+			int rgbChannel = separator.getZCTCoords(no)[1] % nRGBChannels;
+			int bpp = FormatTools.getBytesPerPixel(rgbReader.getPixelType());
+			int nPixels = w * h;
+
+			DecodedTileCache.TileKey key = new DecodedTileCache.TileKey(iSeries,
+					rgbReader.getResolution(), source, x, y, w, h);
+			// Each channel of the tile requests it once
+			byte[] rgbBytes = splitRGBTileCache.get(key, nRGBChannels,
+					() -> rgbReader.openBytes(source, x, y, w, h));
+
+			if (rgbReader.isInterleaved()) {
+				int stride = nRGBChannels * bpp;
+				int idxSrc = rgbChannel * bpp;
+				int idxDst = 0;
+				for (int i = 0; i < nPixels; i++) {
+					for (int b = 0; b < bpp; b++) {
+						buffer[idxDst++] = rgbBytes[idxSrc + b];
+					}
+					idxSrc += stride;
+				}
+			} else {
+				System.arraycopy(rgbBytes, rgbChannel * nPixels * bpp, buffer, 0, nPixels * bpp);
+			}
+		}
+
+		/**
+		 * Reads the raw bytes of a plane into the buffer
+		 */
+		protected void openPlane(IFormatReader reader, int no, byte[] buffer,
+								 int x, int y, int w, int h) throws Exception
+		{
+			ChannelSeparator separator = (splitRGBTileCache == null) ? null : getChannelSeparator(reader);
+			if ((separator != null) && separator.getReader().isRGB()) {
+				openSplitRGBBytes(separator, no, buffer, x, y, w, h);
+			} else if ((nativeTileCache == null) || !openFromNativeTiles(reader, no, buffer, x, y, w, h)) {
+				reader.openBytes(no, buffer, x, y, w, h);
+			}
+		}
+
+		/**
+		 * Assembles a block from decoded native tiles, which are kept in the cache to be
+		 * reused by the neighbouring blocks which overlap the same native tiles.
+		 *
+		 * @return false, without reading anything, if the block should rather be read
+		 * directly: blocks aligned on native tiles (no tile is shared with another block),
+		 * planar multichannel pixels, or tiles too large to be kept in the cache
+		 */
+		private boolean openFromNativeTiles(IFormatReader reader, int no, byte[] buffer,
+											int x, int y, int w, int h) throws Exception
+		{
+			int sizeX = reader.getSizeX();
+			int sizeY = reader.getSizeY();
+			int tw = reader.getOptimalTileWidth();
+			int th = reader.getOptimalTileHeight();
+			if ((tw <= 0) || (th <= 0)) return false;
+			boolean alignedX = (x % tw == 0) && ((w % tw == 0) || (x + w == sizeX));
+			boolean alignedY = (y % th == 0) && ((h % th == 0) || (y + h == sizeY));
+			if (alignedX && alignedY) return false;
+
+			int rgbChannelCount = reader.getRGBChannelCount();
+			if ((rgbChannelCount > 1) && !reader.isInterleaved()) return false;
+			int bpp = FormatTools.getBytesPerPixel(reader.getPixelType()) * rgbChannelCount;
+			// A tile which can't stay in the cache while its neighbours are read is useless
+			if ((long) tw * th * bpp > nativeTileCache.getMaxBytes() / 4) return false;
+
+			int level = reader.getResolution();
+			for (int ty = (y / th) * th; ty < y + h; ty += th) {
+				int tileH = Math.min(th, sizeY - ty);
+				for (int tx = (x / tw) * tw; tx < x + w; tx += tw) {
+					int tileW = Math.min(tw, sizeX - tx);
+					final int tileX = tx, tileY = ty;
+					byte[] tile = nativeTileCache.get(
+							new DecodedTileCache.TileKey(iSeries, level, no, tileX, tileY, tileW, tileH), -1,
+							() -> {
+								byte[] tileBytes = new byte[tileW * tileH * bpp];
+								reader.openBytes(no, tileBytes, tileX, tileY, tileW, tileH);
+								return tileBytes;
+							});
+					// copies the intersection of the tile and of the block, row by row
+					int x0 = Math.max(x, tileX);
+					int x1 = Math.min(x + w, tileX + tileW);
+					int y0 = Math.max(y, tileY);
+					int y1 = Math.min(y + h, tileY + tileH);
+					int rowBytes = (x1 - x0) * bpp;
+					for (int row = y0; row < y1; row++) {
+						System.arraycopy(tile, ((row - tileY) * tileW + (x0 - tileX)) * bpp,
+								buffer, ((row - y) * w + (x0 - x)) * bpp, rowBytes);
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Reads, with the reader which is already positioned on this tile, the same plane
+		 * of the other channels stored in the same block, and keeps them until their own
+		 * loader requests them
+		 */
+		private void coLoadSiblingPlanes(IFormatReader reader, int z, int timepoint, int level,
+										 int x, int y, int w, int h, int nBytesPerPlane) throws Exception
+		{
+			int no = reader.getIndex(z, channel, timepoint);
+			for (int c = 0; c < reader.getEffectiveSizeC(); c++) {
+				if (c == channel) continue;
+				int siblingNo = reader.getIndex(z, c, timepoint);
+				if (!sharesBlock(reader, no, siblingNo)) continue;
+				DecodedTileCache.TileKey key = new DecodedTileCache.TileKey(iSeries, level, siblingNo, x, y, w, h);
+				if (siblingPlaneCache.contains(key)) continue;
+				byte[] siblingBytes = new byte[nBytesPerPlane];
+				openPlane(reader, siblingNo, siblingBytes, x, y, w, h);
+				// Consumed once by the loader of the sibling channel
+				siblingPlaneCache.put(key, siblingBytes, 1);
+			}
+		}
+
+		/**
+		 * @return true if both planes are stored in the same block of the file, so that
+		 * reading one of them decodes the other one as well: RGB channels split by a
+		 * {@link ChannelSeparator} coming from the same RGB plane, or interleaved channels
+		 */
+		static boolean sharesBlock(IFormatReader reader, int no, int siblingNo) {
+			ChannelSeparator separator = getChannelSeparator(reader);
+			if ((separator != null) && (separator.getReader().getRGBChannelCount() > 1)) {
+				return separator.getOriginalIndex(no) == separator.getOriginalIndex(siblingNo);
+			}
+			return reader.isInterleaved();
+		}
+
+		/**
+		 * Assembles a cell from the planes co-loaded by the loader of a sibling channel,
+		 * without leasing a reader. Only possible once a reader has been positioned on
+		 * this resolution level, which gives the geometry of the cell.
+		 *
+		 * @return the cell, or null if any of its blocks has not been co-loaded
+		 */
+		private <P> P readCoLoadedCell(int timepoint, int level, int[] dimensions, long[] min,
+									   int bytesPerPixel, IntFunction<P> allocator, PlaneDecoder<P> decoder)
+		{
+			LevelGeometry geometry = levelGeometries.get(level);
+			if (geometry == null) return null;
+			int minX = (int) min[0];
+			int minY = (int) min[1];
+			int minZ = (int) min[2];
+			int maxX = Math.min(minX + dimensions[0], geometry.sizeX);
+			int maxY = Math.min(minY + dimensions[1], geometry.sizeY);
+			int maxZ = Math.min(minZ + dimensions[2], geometry.sizeZ);
+			int w = maxX - minX;
+			int h = maxY - minY;
+			int d = maxZ - minZ;
+			final int bh = getBandHeight(h, d, geometry.optimalTileHeight);
+			final int nBands = (h + bh - 1) / bh;
+
+			DecodedTileCache.TileKey[] keys = new DecodedTileCache.TileKey[d * nBands];
+			for (int iChunk = 0; iChunk < keys.length; iChunk++) {
+				int z = minZ + iChunk / nBands;
+				int y = minY + (iChunk % nBands) * bh;
+				keys[iChunk] = new DecodedTileCache.TileKey(iSeries, level, geometry.getIndex(z, channel, timepoint),
+						minX, y, w, Math.min(bh, maxY - y));
+				// checked before consuming any block, so that a partially co-loaded cell is left untouched
+				if (!siblingPlaneCache.contains(keys[iChunk])) return null;
+			}
+
+			P array = allocator.apply(w * h * d);
+			for (int iChunk = 0; iChunk < keys.length; iChunk++) {
+				byte[] blockBytes = siblingPlaneCache.getIfPresent(keys[iChunk]);
+				if (blockBytes == null) return null; // evicted in the meantime
+				int z = minZ + iChunk / nBands;
+				int y = minY + (iChunk % nBands) * bh;
+				decoder.decode(blockBytes, keys[iChunk].w * keys[iChunk].h * bytesPerPixel, array,
+						((z - minZ) * h + (y - minY)) * w);
+			}
+			return array;
+		}
+
+		/**
+		 * Reads a block of a plane and decodes it in the cell array
+		 */
+		private <P> void readBlock(IFormatReader reader, int z, int timepoint, int level,
+								   int x, int y, int w, int h, int bytesPerPixel,
+								   P array, int offset, PlaneDecoder<P> decoder) throws Exception
+		{
+			int nBytes = w * h * bytesPerPixel;
+			int no = reader.getIndex(z, channel, timepoint);
+			byte[] buffer = getPlaneBuffer(nBytes);
+			byte[] blockBytes = buffer;
+			if (siblingPlaneCache == null) {
+				openPlane(reader, no, buffer, x, y, w, h);
+			} else {
+				// The block may have been loaded together with a sibling channel
+				blockBytes = siblingPlaneCache.getIfPresent(
+						new DecodedTileCache.TileKey(iSeries, level, no, x, y, w, h));
+				if (blockBytes == null) {
+					blockBytes = buffer;
+					openPlane(reader, no, buffer, x, y, w, h);
+					coLoadSiblingPlanes(reader, z, timepoint, level, x, y, w, h, nBytes);
+				}
+			}
+			decoder.decode(blockBytes, nBytes, array, offset);
+		}
+
+		/**
+		 * Reads all planes of a cell and decodes them into a single primitive array.
+		 * Planes, or bands of native tiles for single plane cells, are read in parallel
+		 * if the reader pool allows it, see {@link ParallelCellReads}
+		 *
+		 * @param timepoint timepoint of the cell
+		 * @param level resolution level of the cell
+		 * @param dimensions dimensions of the cell
+		 * @param min position of the cell
+		 * @param bytesPerPixel number of bytes per pixel given by the reader
+		 * @param allocator creates the destination array for a given number of elements
+		 * @param decoder converts the bytes of each plane into the destination array
+		 * @return the primitive array containing all pixels of the cell
+		 * @param <P> primitive array type
+		 * @throws Exception if the reader can't be acquired or the pixels can't be read
+		 */
+		protected <P> P readCell(int timepoint, int level, int[] dimensions, long[] min,
+								 int bytesPerPixel, IntFunction<P> allocator, PlaneDecoder<P> decoder) throws Exception
+		{
+			if (siblingPlaneCache != null) {
+				// No reader is needed if the cell has been loaded together with a sibling channel
+				P array = readCoLoadedCell(timepoint, level, dimensions, min, bytesPerPixel, allocator, decoder);
+				if (array != null) return array;
+			}
+			return readCell(timepoint, level, dimensions, min, bytesPerPixel, allocator, r -> decoder);
+		}
+
+		/**
+		 * Same as {@link #readCell(int, int, int[], long[], int, IntFunction, PlaneDecoder)}, for decoders
+		 * which depend on the reader once it is set on the series and resolution level of the cell
+		 * (interleaving, intensity window...)
+		 */
+		protected <P> P readCell(int timepoint, int level, int[] dimensions, long[] min,
+								 int bytesPerPixel, IntFunction<P> allocator,
+								 DecoderFactory<P> decoderFactory) throws Exception
+		{
+			if (siblingPlaneCache != null) {
+				// The decoder created for this level by a previous read decodes co-loaded planes
+				@SuppressWarnings("unchecked")
+				PlaneDecoder<P> decoder = (PlaneDecoder<P>) levelDecoders.get(level);
+				if (decoder != null) {
+					P array = readCoLoadedCell(timepoint, level, dimensions, min, bytesPerPixel, allocator, decoder);
+					if (array != null) return array;
+				}
+			}
+			// get the reader, which goes back to the pool whatever happens
+			try (ResourcePool<IFormatReader>.Lease lease = leaseReader(level)) {
+				try {
+					return readPixels(lease.get(), timepoint, level, dimensions, min, bytesPerPixel,
+							allocator, decoderFactory);
+				} catch (IOException e) {
+					// The reader may be unusable (closed stream...): replace it. Corrupted data
+					// (FormatException) doesn't break the reader.
+					lease.invalidate();
+					throw e;
+				}
+			}
+		}
+
+		private <P> P readPixels(IFormatReader reader, int timepoint, int level, int[] dimensions, long[] min,
+								 int bytesPerPixel, IntFunction<P> allocator,
+								 DecoderFactory<P> decoderFactory) throws Exception
+		{
+			int minX = (int) min[0];
+			int minY = (int) min[1];
+			int minZ = (int) min[2];
+			int maxX = Math.min(minX + dimensions[0], reader.getSizeX());
+			int maxY = Math.min(minY + dimensions[1], reader.getSizeY());
+			int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
+			int w = maxX - minX;
+			int h = maxY - minY;
+			int d = maxZ - minZ;
+			int nElementsPerPlane = w * h;
+
+			// read pixels
+			P array = allocator.apply(nElementsPerPlane * d);
+			PlaneDecoder<P> decoder = decoderFactory.create(reader);
+			if (siblingPlaneCache != null) {
+				if (!levelGeometries.containsKey(level)) levelGeometries.putIfAbsent(level, new LevelGeometry(reader));
+				levelDecoders.putIfAbsent(level, decoder);
+			}
+			final int bh = getBandHeight(h, d, reader.getOptimalTileHeight());
+			final int nBands = (h + bh - 1) / bh;
+			ParallelCellReads.read(readerPool, reader, d * nBands,
+				r -> position(r, level),
+				(r, iChunk) -> {
+					int z = minZ + iChunk / nBands;
+					int y = minY + (iChunk % nBands) * bh;
+					int bandH = Math.min(bh, maxY - y);
+					readBlock(r, z, timepoint, level, minX, y, w, bandH, bytesPerPixel,
+						array, ((z - minZ) * h + (y - minY)) * w, decoder);
+				});
+			return array;
+		}
+
+		/**
+		 * A single plane cell is split in bands of native tiles when it can be read in parallel
+		 * @return the height of the blocks a cell is read with
+		 */
+		private int getBandHeight(int h, int d, int optimalTileHeight) {
+			int bandHeight = h;
+			if ((d == 1) && (readerPool.getIntraCellParallelism() > 1)) {
+				bandHeight = Math.min(h, optimalTileHeight);
+			}
+			return Math.max(1, bandHeight);
+		}
+
+	}
+
+	/**
+	 * Sizes of the series of a loader at a resolution level, as given by a reader positioned on them
+	 */
+	static final class LevelGeometry {
+		final int sizeX, sizeY, sizeZ, sizeC, sizeT, optimalTileHeight;
+		final String dimensionOrder;
+
+		LevelGeometry(IFormatReader reader) {
+			this.sizeX = reader.getSizeX();
+			this.sizeY = reader.getSizeY();
+			this.sizeZ = reader.getSizeZ();
+			this.sizeC = reader.getEffectiveSizeC();
+			this.sizeT = reader.getSizeT();
+			this.optimalTileHeight = reader.getOptimalTileHeight();
+			this.dimensionOrder = reader.getDimensionOrder();
+		}
+
+		/**
+		 * @return the plane index given by {@link IFormatReader#getIndex(int, int, int)}
+		 */
+		int getIndex(int z, int c, int t) {
+			return FormatTools.getIndex(dimensionOrder, sizeZ, sizeC, sizeT, sizeZ * sizeC * sizeT, z, c, t);
+		}
 	}
 
 	/**
@@ -87,32 +700,8 @@ public class BioFormatsArrayLoaders {
 										   int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				IFormatReader reader = readerPool.acquire();
-				reader.setSeries(iSeries);
-				reader.setResolution(level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], reader.getSizeX());
-				int maxY = Math.min(minY + dimensions[1], reader.getSizeY());
-				int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytesCurrentPlane = reader.openBytes(reader.getIndex(z, channel,
-							timepoint), minX, minY, w, h);
-					buffer.put(bytesCurrentPlane);
-				}
-
-				// release the reader
-				readerPool.recycle(reader);
-				return new VolatileByteArray(buffer.array(), true);
+				byte[] bytes = readCell(timepoint, level, dimensions, min, 1, byte[]::new, byteDecoder());
+				return new VolatileByteArray(bytes, true);
 			}
 			catch (Exception e) {
 				throw new InterruptedException(e.getMessage());
@@ -143,32 +732,8 @@ public class BioFormatsArrayLoaders {
 										   int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				IFormatReader reader = readerPool.acquire();
-				reader.setSeries(iSeries);
-				reader.setResolution(level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], reader.getSizeX());
-				int maxY = Math.min(minY + dimensions[1], reader.getSizeY());
-				int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytesCurrentPlane = reader.openBytes(reader.getIndex(z, channel,
-							timepoint), minX, minY, w, h);
-					buffer.put(bytesCurrentPlane);
-				}
-
-				// release the reader
-				readerPool.recycle(reader);
-				return new VolatileByteArray(buffer.array(), true);
+				byte[] bytes = readCell(timepoint, level, dimensions, min, 1, byte[]::new, byteDecoder());
+				return new VolatileByteArray(bytes, true);
 			}
 			catch (Exception e) {
 				throw new InterruptedException(e.getMessage());
@@ -207,36 +772,7 @@ public class BioFormatsArrayLoaders {
 			int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				IFormatReader reader = readerPool.acquire();
-				reader.setSeries(iSeries);
-				reader.setResolution(level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], reader.getSizeX());
-				int maxY = Math.min(minY + dimensions[1], reader.getSizeY());
-				int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements * 2);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytes = reader.openBytes(reader.getIndex(z, channel, timepoint), minX, minY,
-						w, h);
-					buffer.put(bytes);
-				}
-
-				// release the reader
-				readerPool.recycle(reader);
-
-				// unsigned short specific transform
-				short[] shorts = new short[nElements];
-				buffer.flip();
-				buffer.order(byteOrder).asShortBuffer().get(shorts);
+				short[] shorts = readCell(timepoint, level, dimensions, min, 2, short[]::new, shortDecoder(byteOrder));
 				return new VolatileShortArray(shorts, true);
 			}
 			catch (Exception e) {
@@ -276,36 +812,7 @@ public class BioFormatsArrayLoaders {
 											int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				IFormatReader reader = readerPool.acquire();
-				reader.setSeries(iSeries);
-				reader.setResolution(level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], reader.getSizeX());
-				int maxY = Math.min(minY + dimensions[1], reader.getSizeY());
-				int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements * 2);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytes = reader.openBytes(reader.getIndex(z, channel, timepoint), minX, minY,
-							w, h);
-					buffer.put(bytes);
-				}
-
-				// release the reader
-				readerPool.recycle(reader);
-
-				// unsigned short specific transform
-				short[] shorts = new short[nElements];
-				buffer.flip();
-				buffer.order(byteOrder).asShortBuffer().get(shorts);
+				short[] shorts = readCell(timepoint, level, dimensions, min, 2, short[]::new, shortDecoder(byteOrder));
 				return new VolatileShortArray(shorts, true);
 			}
 			catch (Exception e) {
@@ -345,36 +852,7 @@ public class BioFormatsArrayLoaders {
 			int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				IFormatReader reader = readerPool.acquire();
-				reader.setSeries(iSeries);
-				reader.setResolution(level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], reader.getSizeX());
-				int maxY = Math.min(minY + dimensions[1], reader.getSizeY());
-				int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements * 4);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytes = reader.openBytes(reader.getIndex(z, channel, timepoint), minX, minY,
-						w, h);
-					buffer.put(bytes);
-				}
-
-				// release the reader
-				readerPool.recycle(reader);
-
-				// float specific transform
-				float[] floats = new float[nElements];
-				buffer.flip();
-				buffer.order(byteOrder).asFloatBuffer().get(floats);
+				float[] floats = readCell(timepoint, level, dimensions, min, 4, float[]::new, floatDecoder(byteOrder));
 				return new VolatileFloatArray(floats, true);
 			}
 			catch (Exception e) {
@@ -410,72 +888,8 @@ public class BioFormatsArrayLoaders {
 										  int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				IFormatReader reader = readerPool.acquire();
-				reader.setSeries(iSeries);
-				reader.setResolution(level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], reader.getSizeX());
-				int maxY = Math.min(minY + dimensions[1], reader.getSizeY());
-				int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				byte[] bytes;
-				if (d == 1) {
-					bytes = reader.openBytes(reader.getIndex(minZ, channel, timepoint), minX, minY,
-							w, h);
-				}
-				else {
-					/*int nBytesPerPlane = nElements * (hasAlphaChannel ? 4 : 3);
-					bytes = new byte[nBytesPerPlane];
-					int offset = 0;
-					for (int z = minZ; z < maxZ; z++) {
-						byte[] bytesCurrentPlane = reader.openBytes(reader.getIndex(z, channel,
-								timepoint), minX, minY, w, h);
-						System.arraycopy(bytesCurrentPlane, 0, bytes, offset,
-								nBytesPerPlane);
-						offset += nBytesPerPlane;
-					}*/
-					throw new UnsupportedOperationException("RGB image block of size above 1 unsupported");
-				}
-				boolean interleaved = reader.isInterleaved();
-
-				// release the reader
-				readerPool.recycle(reader);
-
-				// RGB specific transform
-				int[] ints = new int[nElements];
-				int idxPx = 0;
-				if (interleaved) {
-					if (hasAlphaChannel) {
-						for (int i = 0; i < nElements; i++) {
-							ints[i] = (((255 - bytes[idxPx + 3]) & 0xff) << 24) | ((bytes[idxPx] & 0xff) << 16) |
-									((bytes[idxPx + 1] & 0xff) << 8) | (bytes[idxPx + 2] & 0xff);
-							idxPx += 4;
-						}
-					} else {
-						for (int i = 0; i < nElements; i++) {
-							ints[i] = (0xff << 24) | ((bytes[idxPx] & 0xff) << 16) |
-									((bytes[idxPx + 1] & 0xff) << 8) | (bytes[idxPx + 2] & 0xff);
-							idxPx += 3;
-						}
-					}
-				} else {
-					if (hasAlphaChannel) {
-						throw new UnsupportedOperationException("Non interleaved ARGB pixels unsupported");
-					}
-					int bOffset = 2*nElements;
-					for (int i = 0; i < nElements; i++) {
-						ints[i] = ((bytes[idxPx] & 0xff) << 16 ) | ((bytes[idxPx+nElements] & 0xff) << 8) | (bytes[idxPx+bOffset] & 0xff);
-						idxPx += 1;
-					}
-				}
+				int[] ints = readCell(timepoint, level, dimensions, min, hasAlphaChannel ? 4 : 3, int[]::new,
+						reader -> rgbDecoder(reader.isInterleaved(), hasAlphaChannel));
 				return new VolatileIntArray(ints, true);
 			}
 			catch (Exception e) {
@@ -515,37 +929,213 @@ public class BioFormatsArrayLoaders {
 			int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				IFormatReader reader = readerPool.acquire();
-				reader.setSeries(iSeries);
-				reader.setResolution(level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], reader.getSizeX());
-				int maxY = Math.min(minY + dimensions[1], reader.getSizeY());
-				int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements * 4);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytes = reader.openBytes(reader.getIndex(z, channel, timepoint), minX, minY,
-						w, h);
-					buffer.put(bytes);
+				int[] ints = readCell(timepoint, level, dimensions, min, 4, int[]::new, intDecoder(byteOrder));
+				return new VolatileIntArray(ints, true);
+			}
+			catch (Exception e) {
+				throw new InterruptedException(e.getMessage());
+			}
+		}
+
+		@Override
+		public int getBytesPerElement() {
+			return 4;
+		}
+	}
+
+	/**
+	 * Class explaining how to read and load pixels of type : double (64 bits)
+	 */
+	public static class BioFormatsDoubleArrayLoader extends BioformatsArrayLoader
+		implements CacheArrayLoader<VolatileDoubleArray>
+	{
+
+		final ByteOrder byteOrder;
+
+		protected BioFormatsDoubleArrayLoader(ResourcePool<IFormatReader> readerPool,
+			int channel, int iSeries, boolean littleEndian)
+		{
+			super(readerPool, channel, iSeries);
+			this.byteOrder = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		}
+
+		@Override
+		public VolatileDoubleArray loadArray(int timepoint, int setup, int level,
+			int[] dimensions, long[] min) throws InterruptedException
+		{
+			try {
+				double[] doubles = readCell(timepoint, level, dimensions, min, 8, double[]::new,
+						doubleDecoder(byteOrder));
+				return new VolatileDoubleArray(doubles, true);
+			}
+			catch (Exception e) {
+				throw new InterruptedException(e.getMessage());
+			}
+		}
+
+		@Override
+		public int getBytesPerElement() {
+			return 8;
+		}
+	}
+
+	/**
+	 * Base class of loaders which map linearly a window of the source values
+	 * onto the range of a narrower integer type
+	 */
+	abstract static class NarrowingArrayLoader extends BioformatsArrayLoader {
+
+		final ByteOrder byteOrder;
+		final PrecisionNarrowing narrowing;
+
+		// [min, max] of the source values, estimated on first use if not set
+		private volatile double[] window;
+
+		private NarrowingArrayLoader(ResourcePool<IFormatReader> readerPool, int channel, int iSeries,
+									 boolean littleEndian, PrecisionNarrowing narrowing, double[] window)
+		{
+			super(readerPool, channel, iSeries);
+			this.byteOrder = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+			this.narrowing = narrowing;
+			this.window = window;
+		}
+
+		/**
+		 * @param reader reader positioned on the resolution level of the cell being read
+		 * @return the window of source values mapped onto the target type
+		 */
+		protected double[] getWindow(IFormatReader reader) throws Exception {
+			double[] w = window;
+			if (w == null) {
+				synchronized (this) {
+					if (window == null) window = estimateWindow(reader);
+					w = window;
 				}
+			}
+			return w;
+		}
 
-				// release the reader
-				readerPool.recycle(reader);
+		/**
+		 * Estimates the window from the min and max values of (the center of) the middle
+		 * plane of the first timepoint, at the lowest resolution level
+		 */
+		private double[] estimateWindow(IFormatReader reader) throws Exception {
+			int level = reader.getResolution();
+			reader.setResolution(reader.getResolutionCount() - 1);
+			try {
+				int w = Math.min(reader.getSizeX(), 2048);
+				int h = Math.min(reader.getSizeY(), 2048);
+				int x = (reader.getSizeX() - w) / 2;
+				int y = (reader.getSizeY() - h) / 2;
+				byte[] bytes = new byte[w * h * FormatTools.getBytesPerPixel(narrowing.getSourcePixelType())];
+				openPlane(reader, reader.getIndex(reader.getSizeZ() / 2, channel, 0), bytes, x, y, w, h);
+				double[] range = narrowing.getRangeEstimator().getRange(bytes, bytes.length, byteOrder);
+				if (!(range[1] > range[0])) { // no data, or uniform
+					range = new double[] { Math.min(range[0], 0), Math.max(range[0], 0) + 1 };
+				}
+				return range;
+			} finally {
+				reader.setResolution(level);
+			}
+		}
+	}
 
-				// int specific transform
-				int[] ints = new int[nElements];
-				buffer.flip();
-				buffer.order(byteOrder).asIntBuffer().get(ints);
-				return new VolatileIntArray(ints, true);
+	/**
+	 * Class explaining how to read float (32 bits) pixels and load them as unsigned short (16 bits)
+	 */
+	public static class BioFormatsFloatToUnsignedShortArrayLoader extends NarrowingArrayLoader
+		implements CacheArrayLoader<VolatileShortArray>
+	{
+
+		protected BioFormatsFloatToUnsignedShortArrayLoader(ResourcePool<IFormatReader> readerPool,
+			int channel, int iSeries, boolean littleEndian, double[] window)
+		{
+			super(readerPool, channel, iSeries, littleEndian, PrecisionNarrowing.FLOAT32_TO_UINT16, window);
+		}
+
+		@Override
+		public VolatileShortArray loadArray(int timepoint, int setup, int level,
+			int[] dimensions, long[] min) throws InterruptedException
+		{
+			try {
+				short[] shorts = readCell(timepoint, level, dimensions, min, 4, short[]::new,
+						reader -> {
+							double[] w = getWindow(reader);
+							return floatToUnsignedShortDecoder(byteOrder, w[0], w[1]);
+						});
+				return new VolatileShortArray(shorts, true);
+			}
+			catch (Exception e) {
+				throw new InterruptedException(e.getMessage());
+			}
+		}
+
+		@Override
+		public int getBytesPerElement() {
+			return 2;
+		}
+	}
+
+	/**
+	 * Class explaining how to read unsigned short (16 bits) pixels and load them as unsigned byte (8 bits)
+	 */
+	public static class BioFormatsUnsignedShortToUnsignedByteArrayLoader extends NarrowingArrayLoader
+		implements CacheArrayLoader<VolatileByteArray>
+	{
+
+		protected BioFormatsUnsignedShortToUnsignedByteArrayLoader(ResourcePool<IFormatReader> readerPool,
+			int channel, int iSeries, boolean littleEndian, double[] window)
+		{
+			super(readerPool, channel, iSeries, littleEndian, PrecisionNarrowing.UINT16_TO_UINT8, window);
+		}
+
+		@Override
+		public VolatileByteArray loadArray(int timepoint, int setup, int level,
+			int[] dimensions, long[] min) throws InterruptedException
+		{
+			try {
+				byte[] bytes = readCell(timepoint, level, dimensions, min, 2, byte[]::new,
+						reader -> {
+							double[] w = getWindow(reader);
+							return unsignedShortToUnsignedByteDecoder(byteOrder, w[0], w[1]);
+						});
+				return new VolatileByteArray(bytes, true);
+			}
+			catch (Exception e) {
+				throw new InterruptedException(e.getMessage());
+			}
+		}
+
+		@Override
+		public int getBytesPerElement() {
+			return 1;
+		}
+	}
+
+	/**
+	 * Class explaining how to read double (64 bits) pixels and load them as float (32 bits)
+	 */
+	public static class BioFormatsDoubleToFloatArrayLoader extends BioformatsArrayLoader
+		implements CacheArrayLoader<VolatileFloatArray>
+	{
+
+		final ByteOrder byteOrder;
+
+		protected BioFormatsDoubleToFloatArrayLoader(ResourcePool<IFormatReader> readerPool,
+			int channel, int iSeries, boolean littleEndian)
+		{
+			super(readerPool, channel, iSeries);
+			this.byteOrder = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		}
+
+		@Override
+		public VolatileFloatArray loadArray(int timepoint, int setup, int level,
+			int[] dimensions, long[] min) throws InterruptedException
+		{
+			try {
+				float[] floats = readCell(timepoint, level, dimensions, min, 8, float[]::new,
+						doubleToFloatDecoder(byteOrder));
+				return new VolatileFloatArray(floats, true);
 			}
 			catch (Exception e) {
 				throw new InterruptedException(e.getMessage());
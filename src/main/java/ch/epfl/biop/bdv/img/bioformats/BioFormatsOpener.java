@@ -42,7 +42,9 @@ import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
 import loci.formats.Memoizer;
 import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.in.MetadataLevel;
 import loci.formats.in.MetadataOptions;
+import loci.formats.meta.DummyMetadata;
 import loci.formats.meta.IMetadata;
 import loci.formats.services.OMEXMLService;
 import mpicbg.spim.data.generic.base.Entity;
@@ -52,11 +54,13 @@ import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.Type;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.integer.ByteType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.integer.ShortType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedIntType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
 import ome.units.UNITS;
 import ome.units.quantity.Length;
@@ -77,6 +81,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
@@ -96,6 +101,12 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 	// -------- How to open the dataset (reader pool, transforms)
 	//protected Consumer<IFormatReader> readerModifier = (e) -> {};
 	private final ReaderPool pool;
+	// Decoded RGB tiles shared by the split channels, null if RGB channels are not split
+	private final DecodedTileCache splitRGBTileCache;
+	// Planes read together with a sibling channel, null if channels are not co-loaded
+	private final DecodedTileCache siblingPlaneCache;
+	// Decoded native tiles, to assemble cells not aligned on them, null if disabled
+	private final DecodedTileCache nativeTileCache;
 	// private AffineTransform3D rootTransform;
 
 	// -------- Opener core options
@@ -104,6 +115,8 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 	private final String format;
 	private final IMetadata omeMeta;
 	private final String dataLocation;
+	// Files holding the pixels of the image, including the main one
+	private final String[] usedFiles;
 	private final boolean memoize;
 
 	// -------- Pixels characteristics
@@ -112,9 +125,13 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 	private final boolean hasAlphaChannel;
 	private final VoxelDimensions voxelDimensions;
 	private final Type<? extends NumericType<?>> t;
+	// Conversion to a narrower type while decoding, null if pixels are not converted
+	private final PrecisionNarrowing narrowing;
+	// Window of source values for integer targets, null to estimate it from the data
+	private final double[] narrowingWindow;
 
 	// -------- Resolutions options
-	private final int[] cellDimensions;
+	private final int[][] cellDimensions; // per resolution level
 	private final int nMipMapLevels;
 
 	// -------- Image dimensions
@@ -231,24 +248,50 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
             });
         }
 
-		this.pool = memoize("opener.bioformats."+splitRGBChannels+"."+dataLocation+"."+options,
+		final String poolKey = "opener.bioformats."+splitRGBChannels+"."+dataLocation+"."+options;
+		this.pool = memoize(poolKey,
 				cachedObjects,
 				() -> {
-					logger.debug("Creating pool for "+"opener.bioformats."+splitRGBChannels+"."+dataLocation+"."+options);
+					logger.debug("Creating pool for "+poolKey);
                     try {
-                        return new ReaderPool(poolSize, true,
-                                this::getNewReader, dataLocation.toUpperCase().trim().endsWith(".CZI") ); // Create base reader only for czi files
+                        boolean lightReaders = Boolean.parseBoolean(readerOptions.getOrDefault(OpenerSettings.BF_LIGHT_READERS_KEY, "false"));
+                        ReaderPool readerPool = new ReaderPool(poolSize, true,
+                                this::getNewReader, lightReaders ? () -> getNewReader(true) : null,
+                                dataLocation.toUpperCase().trim().endsWith(".CZI"), // Create base reader only for czi files
+                                isReaderCloningEnabled() && !SldWorkaround.isSld(dataLocation) ? new ReaderSnapshot(dataLocation) : null);
+                        readerPool.setName("Bio-Formats readers of "+dataLocation);
+                        readerPool.getStatistics().registerMBean(poolKey); // Shared by all series of the file
+                        return readerPool;
                     } catch (Exception e) {
 						e.printStackTrace();
                         throw new RuntimeException(e);
                     }
                 });
+
+		// Channels of a split RGB tile are decoded once and shared between all channel loaders
+		this.splitRGBTileCache = splitRGBChannels ?
+				memoize("opener.bioformats.rgbtilecache."+dataLocation+"."+options, cachedObjects,
+						() -> new DecodedTileCache(getSplitRGBTileCacheBytes())) : null;
+
+		// Loading a channel of a tile also loads the other channels of this tile
+		boolean coLoadChannels = Boolean.parseBoolean(readerOptions.getOrDefault(OpenerSettings.BF_COLOAD_CHANNELS_KEY, "false"));
+		this.siblingPlaneCache = coLoadChannels ?
+				memoize("opener.bioformats.siblingplanecache."+splitRGBChannels+"."+dataLocation+"."+options, cachedObjects,
+						() -> new DecodedTileCache(getSiblingPlaneCacheBytes())) : null;
+
+		// Native tiles overlapped by several cells are decoded once
+		this.nativeTileCache = getNativeTileCacheBytes() > 0 ?
+				memoize("opener.bioformats.nativetilecache."+splitRGBChannels+"."+dataLocation+"."+options, cachedObjects,
+						() -> new DecodedTileCache(getNativeTileCacheBytes())) : null;
+
 		int pixelType;
 		IFormatReader reader = null;
 		try { // Indentation just for the pool / recycle operation -> force limiting the scope of reader
 			reader = pool.acquire();
 			reader.setSeries(iSerie);
-			this.omeMeta = (IMetadata) reader.getMetadataStore();
+			this.omeMeta = pool.getMetadata(reader);
+			String[] files = reader.getUsedFiles(false);
+			this.usedFiles = (files == null) ? new String[0] : files;
 			nChannels = this.omeMeta.getChannelCount(iSerie);//reader.getSizeC();
 			this.nMipMapLevels = reader.getResolutionCount();
 			this.nTimePoints = reader.getSizeT();
@@ -268,24 +311,44 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 			// Collect class of reader - helps with the special handling of ZeissQuickStartCZIReader
 			this.format = reader.getFormat();
 
-			this.cellDimensions = new int[] {
+			int[] defaultCellDimensions = new int[] {
 					useDefaultXYBlockSize ? reader.getOptimalTileWidth() : cacheBlockSize[0],
 					useDefaultXYBlockSize ? reader.getOptimalTileHeight() : cacheBlockSize[1],
 					useDefaultXYBlockSize ? 1 : cacheBlockSize[2] };
 
+			pixelType = reader.getPixelType();
+			PrecisionNarrowing requestedNarrowing =
+					PrecisionNarrowing.fromOption(readerOptions.get(OpenerSettings.BF_NARROWING_KEY));
+			this.narrowing = ((requestedNarrowing != null) && (!this.isRGB)
+					&& (requestedNarrowing.getSourcePixelType() == pixelType)) ? requestedNarrowing : null;
+			boolean autoCellLayout = useDefaultXYBlockSize &&
+					Boolean.parseBoolean(readerOptions.getOrDefault(OpenerSettings.BF_AUTO_CELL_LAYOUT_KEY, "false"));
+			// Bytes per pixel of the cells: RGB pixels are packed in ARGB ints
+			int cellBytesPerPixel = (this.isRGB && !splitRGBChannels) ? 4 :
+					FormatTools.getBytesPerPixel((narrowing != null) ? narrowing.getTargetPixelType() : pixelType);
+
 			this.dimensions = new Dimensions[this.nMipMapLevels];
+			this.cellDimensions = new int[this.nMipMapLevels][];
 			for (int level = 0; level < this.nMipMapLevels; level++) {
 				reader.setResolution(level);
 				this.dimensions[level] = getDimension(reader.getSizeX(), reader.getSizeY(), reader.getSizeZ());
+				this.cellDimensions[level] = autoCellLayout ?
+						getAutoCellDimensions(reader.getOptimalTileWidth(), reader.getOptimalTileHeight(),
+								reader.getSizeX(), reader.getSizeY(), cellBytesPerPixel) : defaultCellDimensions;
 			}
-			pixelType = reader.getPixelType();
 		} finally {
 			if (reader != null) {
 				pool.recycle(reader);
 			}
 		}
 
-		this.t = BioFormatsOpener.getBioformatsBdvSourceType(pixelType, this.isRGB, iSerie);
+		if (narrowing != null) {
+			this.t = narrowing.getTargetType();
+			this.narrowingWindow = getNarrowingWindow(narrowing, readerOptions); // null: estimated by the loaders
+		} else {
+			this.t = BioFormatsOpener.getBioformatsBdvSourceType(pixelType, this.isRGB, iSerie);
+			this.narrowingWindow = null;
+		}
 
 		if (!skipMeta) {
 
@@ -548,7 +611,17 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 	 * @return the reader
 	 */
 	public IFormatReader getNewReader() {
-		logger.debug("Getting new reader for " + dataLocation);
+		return getNewReader(false);
+	}
+
+	/**
+	 * @param lightweight true to only read pixels: the reader is initialized with the minimal
+	 *                    metadata level, without metadata store, and without memo file (the memo
+	 *                    file holds the full metadata)
+	 * @return the reader
+	 */
+	IFormatReader getNewReader(boolean lightweight) {
+		logger.debug("Getting new " + (lightweight ? "lightweight " : "") + "reader for " + dataLocation);
 		IFormatReader reader;
 		// Copied from QuPath logic: https://github.com/qupath/qupath/blob/f9c7622c899653b52ebd6f586b038a8fcf193372/qupath-extension-bioformats/src/main/java/qupath/lib/images/servers/bioformats/BioFormatsImageServer.java#L1298C4-L1305C5
 		Matcher zarrMatcher = ZARR_FILE_PATTERN.matcher(dataLocation.toLowerCase());
@@ -594,11 +667,17 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 			}
 		}
 
+		if (lightweight) {
+			reader.getMetadataOptions().setMetadataLevel(MetadataLevel.MINIMUM);
+			reader.setOriginalMetadataPopulated(false);
+			reader.setMetadataStore(new DummyMetadata());
+		}
+
 		if (splitRGBChannels) {
 			reader = new ChannelSeparator(reader);
 		}
 
-		if (memoize) {
+		if (memoize && !lightweight) {
 			Memoizer memo = BioFormatsHelper.wrapInMemoizer(reader);
 			try {
 				memo.setId(dataLocation);
@@ -656,6 +735,13 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 			if (pt == FormatTools.INT16) {
 				return new ShortType();
 			}
+			if (pt == FormatTools.INT8) {
+				return new ByteType();
+			}
+			if (pt == FormatTools.DOUBLE) {
+				// See PrecisionNarrowing.FLOAT64_TO_FLOAT32 to cache them as floats
+				return new DoubleType();
+			}
 		}
 		throw new UnsupportedOperationException("Unhandled pixel type for serie " +
 				image_index + ": " + pt);
@@ -665,6 +751,14 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 	@Override
 	public String getImageFormat() {return this.format;}
 
+	/**
+	 * @return the files holding the pixels of the image, including the main one, as listed
+	 * by the reader when the opener was created
+	 */
+	public String[] getUsedFiles() {
+		return usedFiles.clone();
+	}
+
 	/**
 	 * @param sizeX
 	 * @param sizeY
@@ -732,7 +826,7 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 
 	@Override
 	public int[] getCellDimensions(int level) {
-		return cellDimensions;
+		return cellDimensions[level];
 	}
 
 	@Override
@@ -764,17 +858,207 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 		return hasAlphaChannel;
 	}
 
+	/** System property to disable the cloning of pooled readers from the in-memory state of the
+	 *  first reader of a file, e.g. {@code -Dbigdataviewer.bioformats.clonereaders=false} */
+	public static final String CLONE_READERS_PROPERTY = "bigdataviewer.bioformats.clonereaders";
+
+	/**
+	 * @return whether new readers of a pool are cloned from the in-memory state of the first one,
+	 * see {@link #CLONE_READERS_PROPERTY}
+	 */
+	static boolean isReaderCloningEnabled() {
+		return Boolean.parseBoolean(System.getProperty(CLONE_READERS_PROPERTY, "true"));
+	}
+
+	/** System property to set the size, in megabytes, of the cache of decoded RGB tiles
+	 *  shared between split RGB channels, e.g. {@code -Dbigdataviewer.bioformats.rgbtilecache.mb=128} */
+	public static final String RGB_TILE_CACHE_MB_PROPERTY = "bigdataviewer.bioformats.rgbtilecache.mb";
+
+	private static long getSplitRGBTileCacheBytes() {
+		return Long.getLong(RGB_TILE_CACHE_MB_PROPERTY, 64) * 1024 * 1024;
+	}
+
+	/** System property to set the size, in megabytes, of the cache of planes co-loaded with
+	 *  a sibling channel, e.g. {@code -Dbigdataviewer.bioformats.siblingcache.mb=256} */
+	public static final String SIBLING_CACHE_MB_PROPERTY = "bigdataviewer.bioformats.siblingcache.mb";
+
+	private static long getSiblingPlaneCacheBytes() {
+		return Long.getLong(SIBLING_CACHE_MB_PROPERTY, 128) * 1024 * 1024;
+	}
+
+	/** System property to set the size, in megabytes, of the cache of decoded native tiles of each file,
+	 *  used when cells are not aligned on native tiles, e.g. {@code -Dbigdataviewer.bioformats.nativetilecache.mb=256}.
+	 *  Disabled (0) by default. The caches of all files together count against
+	 *  {@link DecodedTileCache#GLOBAL_MAX_MB_PROPERTY} */
+	public static final String NATIVE_TILE_CACHE_MB_PROPERTY = "bigdataviewer.bioformats.nativetilecache.mb";
+
+	private static long getNativeTileCacheBytes() {
+		return Long.getLong(NATIVE_TILE_CACHE_MB_PROPERTY, 0) * 1024 * 1024;
+	}
+
+	/**
+	 * @return the window given in the reader options, or null if none is given
+	 * @throws IllegalArgumentException if the window is invalid, or given to a narrowing without window
+	 */
+	private static double[] getNarrowingWindow(PrecisionNarrowing narrowing, Map<String, String> readerOptions) {
+		String min = readerOptions.get(OpenerSettings.BF_NARROWING_MIN_KEY);
+		String max = readerOptions.get(OpenerSettings.BF_NARROWING_MAX_KEY);
+		if ((min == null) && (max == null)) return null;
+		if ((min == null) || (max == null)) {
+			throw new IllegalArgumentException("Both " + OpenerSettings.BF_NARROWING_MIN_KEY + " and " +
+					OpenerSettings.BF_NARROWING_MAX_KEY + " should be set");
+		}
+		if (!narrowing.needsWindow()) {
+			throw new IllegalArgumentException("Precision narrowing " + narrowing.getOption() + " has no window");
+		}
+		double[] window;
+		try {
+			window = new double[] { Double.parseDouble(min.trim()), Double.parseDouble(max.trim()) };
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid precision narrowing window [" + min + ", " + max + "]", e);
+		}
+		PrecisionNarrowing.checkWindow(window[0], window[1]);
+		return window;
+	}
+
+	/**
+	 * @return the cache of decoded native tiles, used to assemble cells which are not aligned
+	 * on native tiles, or null if disabled
+	 */
+	public DecodedTileCache getNativeTileCache() {
+		return nativeTileCache;
+	}
+
+	/** System property to set the minimal size, in kilobytes, of the cells of the automatic cell layout,
+	 *  e.g. {@code -Dbigdataviewer.bioformats.autocell.minkb=256} */
+	public static final String AUTO_CELL_MIN_KB_PROPERTY = "bigdataviewer.bioformats.autocell.minkb";
+
+	/** System property to set the maximal size, in kilobytes, of the cells of the automatic cell layout,
+	 *  e.g. {@code -Dbigdataviewer.bioformats.autocell.maxkb=4096} */
+	public static final String AUTO_CELL_MAX_KB_PROPERTY = "bigdataviewer.bioformats.autocell.maxkb";
+
+	/**
+	 * Chooses the cell dimensions of a resolution level from its native tiles: cells are made of
+	 * whole native tiles, grown alternately in x and y (keeping cells roughly square)
+	 * until they reach the minimal size, without exceeding the maximal size. Native tiles which
+	 * are larger than the maximal size, like the full width strips of large TIFF images, are
+	 * split in x.
+	 *
+	 * @param tileWidth native tile (or strip) width of the level
+	 * @param tileHeight native tile (or strip) height of the level
+	 * @param sizeX width of the level
+	 * @param sizeY height of the level
+	 * @param bytesPerPixel bytes per pixel of the cells
+	 * @return cell dimensions for this level
+	 */
+	static int[] getAutoCellDimensions(int tileWidth, int tileHeight, int sizeX, int sizeY, int bytesPerPixel) {
+		long minBytes = Long.getLong(AUTO_CELL_MIN_KB_PROPERTY, 128) * 1024;
+		long maxBytes = Math.max(minBytes, Long.getLong(AUTO_CELL_MAX_KB_PROPERTY, 2048) * 1024);
+
+		int tw = Math.max(1, Math.min(tileWidth, sizeX));
+		int th = Math.max(1, Math.min(tileHeight, sizeY));
+
+		// Too large native tiles: split them in x
+		while (((long) tw * th * bytesPerPixel > maxBytes) && (tw > 256)) {
+			tw = (tw + 1) / 2;
+		}
+
+		// Too small: group native tiles
+		int nx = 1, ny = 1;
+		while ((long) nx * tw * ny * th * bytesPerPixel < minBytes) {
+			boolean canGrowX = nx * tw < sizeX;
+			boolean canGrowY = ny * th < sizeY;
+			if (!canGrowX && !canGrowY) break;
+			boolean growY = canGrowY && (!canGrowX || (ny * th <= nx * tw));
+			long grownBytes = growY ?
+					(long) nx * tw * (ny + 1) * th * bytesPerPixel :
+					(long) (nx + 1) * tw * ny * th * bytesPerPixel;
+			if (grownBytes > maxBytes) break;
+			if (growY) ny++; else nx++;
+		}
+
+		return new int[] { Math.min(nx * tw, sizeX), Math.min(ny * th, sizeY), 1 };
+	}
+
+	/**
+	 * @return the cache of planes which have been read together with another channel
+	 * of the same tile, or null if channels are not co-loaded
+	 */
+	public DecodedTileCache getSiblingPlaneCache() {
+		return siblingPlaneCache;
+	}
+
+	/**
+	 * @return file path or URL of the image data
+	 */
+	public String getDataLocation() {
+		return dataLocation;
+	}
+
+	/**
+	 * @return the conversion of pixels to a narrower type done while decoding them,
+	 * or null if pixels keep their type
+	 */
+	public PrecisionNarrowing getPrecisionNarrowing() {
+		return narrowing;
+	}
+
+	/**
+	 * @return the window [min, max] of source values mapped onto the narrower type,
+	 * or null if it should be estimated from the data
+	 */
+	public double[] getPrecisionNarrowingWindow() {
+		return narrowingWindow;
+	}
+
+	/**
+	 * @return the counter of series or resolution level changes of the readers of the pool
+	 */
+	LongAdder getReaderRepositionCounter() {
+		return pool.repositions;
+	}
+
+	/**
+	 * A reader changes its series or resolution level when a tile is requested while no idle
+	 * reader is already set on the series and resolution level of this tile. A high count,
+	 * compared to the number of tiles read, means that readers are often moved between
+	 * series or resolution levels, which may reset their internal state.
+	 * @return the number of series or resolution level changes of the readers of the pool,
+	 * which is shared between all openers of the same file
+	 */
+	public long getReaderRepositionCount() {
+		return pool.repositions.sum();
+	}
+
+	/**
+	 * @return the cache of decoded RGB tiles shared by the split channels of this
+	 * opener, or null if RGB channels are not split
+	 */
+	public DecodedTileCache getSplitRGBTileCache() {
+		return splitRGBTileCache;
+	}
+
 	private static class ReaderPool extends ResourcePool<IFormatReader> {
 
 		final Supplier<IFormatReader> readerSupplier;
+		final Supplier<IFormatReader> lightReaderSupplier;
 		final IFormatReader model;
+		final ReaderSnapshot snapshot;
+		final LongAdder repositions = new LongAdder();
+		// With lightweight readers, full metadata of the first reader, kept for all openers of the file
+		volatile IMetadata metadata;
 
 		public ReaderPool(int size, Boolean dynamicCreation,
-						  Supplier<IFormatReader> readerSupplier, boolean createBase) throws Exception {
+						  Supplier<IFormatReader> readerSupplier, Supplier<IFormatReader> lightReaderSupplier,
+						  boolean createBase, ReaderSnapshot snapshot) throws Exception {
 			super(size, dynamicCreation);
 			this.readerSupplier = readerSupplier;
+			this.lightReaderSupplier = lightReaderSupplier;
+			this.snapshot = snapshot;
 			if (createBase) {
-				model = this.acquire();
+				// Kept open for the lifetime of the pool to copy the other readers from: it is
+				// not one of the readers of the pool, and is not counted in the reader budget
+				model = readerSupplier.get();
 			} else {
 				model = null;
 			}
@@ -788,22 +1072,57 @@ public class BioFormatsOpener implements Opener<IFormatReader> {
 			if ((model!=null)&&(BioFormatsHelper.hasCopyMethod(model))) {
 				return BioFormatsHelper.copy(model);
 			}
-			return readerSupplier.get();
+			Supplier<IFormatReader> supplier = readerSupplier;
+			if (lightReaderSupplier != null) {
+				if (metadata == null) {
+					synchronized (this) {
+						// No lightweight reader exists before the full metadata is available
+						if (metadata == null) {
+							IFormatReader reader = readerSupplier.get();
+							metadata = (IMetadata) reader.getMetadataStore();
+							return reader;
+						}
+					}
+				}
+				supplier = lightReaderSupplier;
+			}
+			if (snapshot != null) {
+				// Any format: clone the state of the first reader instead of parsing the file again
+				IFormatReader clone = snapshot.restore();
+				if (clone != null) return clone;
+				IFormatReader reader = supplier.get();
+				snapshot.capture(reader);
+				return reader;
+			}
+			return supplier.get();
+		}
+
+		/**
+		 * @param reader a reader of this pool
+		 * @return the full metadata of the file: the shared one with lightweight readers,
+		 * the metadata store of the reader otherwise
+		 */
+		IMetadata getMetadata(IFormatReader reader) {
+			return (lightReaderSupplier != null) ? metadata : (IMetadata) reader.getMetadataStore();
+		}
+
+		@Override
+		protected void destroyObject(IFormatReader reader) {
+			SldWorkaround.closeUnlessSld(reader);
 		}
 
-		volatile boolean modelHasBeenRecycled = false;
+		volatile boolean modelHasBeenClosed = false;
 
 		@Override
 		public synchronized void shutDown(Consumer<IFormatReader> closer) {
-			if (!modelHasBeenRecycled) {
-				modelHasBeenRecycled = true;
+			if (!modelHasBeenClosed) {
+				modelHasBeenClosed = true;
 				if (model != null) {
 					try {
-						recycle(model);
+						closer.accept(model);
 					} catch (Exception e) {
 						e.printStackTrace();
 					}
-					closer.accept(model);
 				}
 			}
 			super.shutDown(closer);
@@ -24,6 +24,7 @@ package ch.epfl.biop.bdv.img.bioformats;
 
 import bdv.img.cache.CacheArrayLoader;
 import bdv.img.cache.VolatileGlobalCellCache;
+import ch.epfl.biop.bdv.img.DiskCellCache;
 import ch.epfl.biop.bdv.img.OpenerSetupLoader;
 import ch.epfl.biop.bdv.img.ResourcePool;
 import loci.formats.IFormatReader;
@@ -42,6 +43,7 @@ import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.AbstractIntegerType;
 import net.imglib2.type.numeric.integer.ByteType;
 import net.imglib2.type.numeric.integer.IntType;
@@ -49,10 +51,12 @@ import net.imglib2.type.numeric.integer.ShortType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedIntType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -66,10 +70,11 @@ public class BioFormatsSetupLoader<T extends NumericType<T> & NativeType<T>, V e
 	private final Converter<T, FloatType> cvt;
     private final Supplier<VolatileGlobalCellCache> cacheSupplier;
 	private final CacheArrayLoader<A> loader;
+	private final CacheArrayLoader<A> cellLoader; // loader, backed by the disk cache if enabled
 
 	// -------- Resolution levels
 	private final double[][] mmResolutions;
-	private final int[] cellDimensions;
+	private final int[][] cellDimensions; // per resolution level
 	private final int numMipmapLevels;
 
     // -------- ViewSetup
@@ -113,6 +118,10 @@ public class BioFormatsSetupLoader<T extends NumericType<T> & NativeType<T>, V e
 				.getRealFloat());
 			cvtRaiToFloatRai = rai -> Converters.convert(rai, cvt, new FloatType());
 		}
+		else if (t instanceof RealType) {
+			cvt = (input, output) -> output.set(((RealType<?>) input).getRealFloat());
+			cvtRaiToFloatRai = rai -> Converters.convert(rai, cvt, new FloatType());
+		}
 		else {
 			cvt = null;
 			cvtRaiToFloatRai = e -> {
@@ -134,7 +143,10 @@ public class BioFormatsSetupLoader<T extends NumericType<T> & NativeType<T>, V e
 
 		// resolution levels and dimensions
 		numMipmapLevels = opener.getNumMipmapLevels();
-		cellDimensions = opener.getCellDimensions(0);
+		cellDimensions = new int[numMipmapLevels][];
+		for (int iLevel = 0; iLevel < numMipmapLevels; iLevel++) {
+			cellDimensions[iLevel] = opener.getCellDimensions(iLevel);
+		}
 		mmResolutions = new double[numMipmapLevels][3];
 		mmResolutions[0][0] = 1;
 		mmResolutions[0][1] = 1;
@@ -172,7 +184,20 @@ public class BioFormatsSetupLoader<T extends NumericType<T> & NativeType<T>, V e
 		// ARGBType
 		// IntType
 		// UnsignedIntType
-		if (t instanceof UnsignedByteType) {
+		PrecisionNarrowing narrowing = opener.getPrecisionNarrowing();
+		if (narrowing == PrecisionNarrowing.FLOAT32_TO_UINT16) {
+			loader =
+					(CacheArrayLoader<A>) new BioFormatsArrayLoaders.BioFormatsFloatToUnsignedShortArrayLoader(
+							readerPool, channelIndex, iSeries, isLittleEndian, opener.getPrecisionNarrowingWindow());
+		} else if (narrowing == PrecisionNarrowing.UINT16_TO_UINT8) {
+			loader =
+					(CacheArrayLoader<A>) new BioFormatsArrayLoaders.BioFormatsUnsignedShortToUnsignedByteArrayLoader(
+							readerPool, channelIndex, iSeries, isLittleEndian, opener.getPrecisionNarrowingWindow());
+		} else if (narrowing == PrecisionNarrowing.FLOAT64_TO_FLOAT32) {
+			loader =
+					(CacheArrayLoader<A>) new BioFormatsArrayLoaders.BioFormatsDoubleToFloatArrayLoader(
+							readerPool, channelIndex, iSeries, isLittleEndian);
+		} else if (t instanceof UnsignedByteType) {
 			loader =
 					(CacheArrayLoader<A>) new BioFormatsArrayLoaders.BioFormatsUnsignedByteArrayLoader(
                             readerPool, channelIndex, iSeries);
@@ -192,6 +217,10 @@ public class BioFormatsSetupLoader<T extends NumericType<T> & NativeType<T>, V e
 			loader =
 					(CacheArrayLoader<A>) new BioFormatsArrayLoaders.BioFormatsFloatArrayLoader(
                         readerPool, channelIndex, iSeries, isLittleEndian);
+		} else if (t instanceof DoubleType) {
+			loader =
+					(CacheArrayLoader<A>) new BioFormatsArrayLoaders.BioFormatsDoubleArrayLoader(
+                        readerPool, channelIndex, iSeries, isLittleEndian);
 		} else if (t instanceof IntType) {
 			loader =
 					(CacheArrayLoader<A>) new BioFormatsArrayLoaders.BioFormatsIntArrayLoader(
@@ -210,6 +239,14 @@ public class BioFormatsSetupLoader<T extends NumericType<T> & NativeType<T>, V e
 				.getName() + " unsupported in " + BioFormatsSetupLoader.class
 					.getName());
 		}
+		((BioFormatsArrayLoaders.BioformatsArrayLoader) loader).configure(opener);
+
+		// Anything changing the decoded values is part of the key, the file stamp invalidates modified files
+		cellLoader = withDiskCache(loader, opener.getRawPixelDataKey()
+				+ "/" + channelIndex
+				+ "/" + loader.getClass().getSimpleName()
+				+ "/" + Arrays.toString(opener.getPrecisionNarrowingWindow())
+				+ "/" + DiskCellCache.getFileStamp(opener.getDataLocation()));
 	}
 
 	@Override
@@ -229,15 +266,15 @@ public class BioFormatsSetupLoader<T extends NumericType<T> & NativeType<T>, V e
 		ImgLoaderHint... hints)
 	{
 		final long[] dims = dimensions[level].dimensionsAsLongArray();
-		final int[] cellDimensions = this.cellDimensions;
+		final int[] cellDimensions = this.cellDimensions[level];
 		final CellGrid grid = new CellGrid(dims, cellDimensions);
 
-		final int priority = this.numMipmapLevels - level;
+		final int priority = getQueuePriority(level, this.numMipmapLevels);
 		final CacheHints cacheHints = new CacheHints(LoadingStrategy.BLOCKING,
 			priority, false);
 
 		return cacheSupplier.get().createImg(grid, timepointId, setup, level,
-			cacheHints, loader, type);
+			cacheHints, cellLoader, type);
 	}
 
 	@Override
@@ -245,15 +282,15 @@ public class BioFormatsSetupLoader<T extends NumericType<T> & NativeType<T>, V e
 		int level, ImgLoaderHint... hints)
 	{
 		final long[] dims = dimensions[level].dimensionsAsLongArray();
-		final int[] cellDimensions = this.cellDimensions;
+		final int[] cellDimensions = this.cellDimensions[level];
 		final CellGrid grid = new CellGrid(dims, cellDimensions);
 
-		final int priority = this.numMipmapLevels - level;
+		final int priority = getQueuePriority(level, this.numMipmapLevels);
 		final CacheHints cacheHints = new CacheHints(LoadingStrategy.BUDGETED,
 			priority, false);
 
 		return cacheSupplier.get().createImg(grid, timepointId, setup, level,
-			cacheHints, loader, volatileType);
+			cacheHints, cellLoader, volatileType);
 	}
 
 	@Override
@@ -0,0 +1,333 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img.bioformats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of decoded pixel blocks, shared by all array loaders (and
+ * thus by all pooled readers) reading the same Bio-Formats file.
+ * <p>
+ * Concurrent requests for the same block wait for a single decode instead of
+ * decoding the block several times. Blocks are evicted in least recently used
+ * order once the total size exceeds the byte budget. A block can also be given
+ * a number of expected uses, after which it is dropped: this is how the
+ * channels of a split RGB tile share a single decode without keeping the
+ * tile around once all channels have been served.
+ * <p>
+ * On top of its own byte budget, each cache counts against a global budget
+ * shared by all caches of the JVM, see {@link #GLOBAL_MAX_MB_PROPERTY}: once
+ * it is exceeded, the least recently used blocks of all caches are evicted,
+ * whatever the cache they belong to.
+ */
+public class DecodedTileCache {
+
+	/** System property to set the maximal size, in megabytes, of all decoded tile caches
+	 *  of the JVM together, e.g. {@code -Dbigdataviewer.tilecache.global.max.mb=1024} */
+	public static final String GLOBAL_MAX_MB_PROPERTY = "bigdataviewer.tilecache.global.max.mb";
+
+	// All caches of the JVM, weakly referenced: a cache which is garbage collected
+	// stops counting against the global budget
+	private static final Set<DecodedTileCache> caches =
+			Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+	// Orders the accesses to the blocks of all caches
+	private static final AtomicLong accessClock = new AtomicLong();
+
+	final long maxBytes;
+
+	// Written while holding the lock on this, read without it for the global budget
+	private volatile long currentBytes = 0;
+	private final LinkedHashMap<TileKey, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final Map<TileKey, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * @param maxBytes maximal number of bytes kept in the cache
+	 */
+	public DecodedTileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		caches.add(this);
+	}
+
+	/**
+	 * @return the maximal number of bytes held by all caches together
+	 */
+	public static long getGlobalMaxBytes() {
+		return Math.max(0, Long.getLong(GLOBAL_MAX_MB_PROPERTY, 512)) * 1024 * 1024;
+	}
+
+	/**
+	 * @return the number of bytes currently held by all caches together
+	 */
+	public static long getGlobalCurrentBytes() {
+		long total = 0;
+		for (DecodedTileCache cache : getCaches()) {
+			total += cache.currentBytes;
+		}
+		return total;
+	}
+
+	private static List<DecodedTileCache> getCaches() {
+		synchronized (caches) {
+			return new ArrayList<>(caches);
+		}
+	}
+
+	/**
+	 * Returns the block of the given key, decoding it if necessary. If another
+	 * thread is already decoding the same block, waits for its result.
+	 *
+	 * @param key identifier of the block
+	 * @param expectedUses number of times this block will be requested before
+	 *                     it can be dropped, or a negative value to keep it
+	 *                     until it is evicted
+	 * @param decoder decodes the block when it is not in the cache, the returned
+	 *                array should not be modified afterwards
+	 * @return the decoded block, which should not be modified
+	 * @throws Exception if the block can't be decoded
+	 */
+	public byte[] get(TileKey key, int expectedUses, Callable<byte[]> decoder) throws Exception {
+		byte[] data = take(key);
+		if (data != null) return data;
+
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		CompletableFuture<byte[]> inFlight = pending.putIfAbsent(key, future);
+		if (inFlight != null) {
+			try {
+				data = inFlight.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+				throw e;
+			}
+			// The decoding thread has stored the block with one use already consumed
+			take(key);
+			return data;
+		}
+
+		try {
+			// The block may have been stored between the first lookup and the reservation
+			data = take(key);
+			if (data == null) {
+				data = decoder.call();
+				store(key, data, expectedUses < 0 ? -1 : expectedUses - 1);
+			}
+			future.complete(data);
+			return data;
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			pending.remove(key, future);
+		}
+	}
+
+	/**
+	 * Stores a block which has been decoded by the caller
+	 * @param key identifier of the block
+	 * @param data decoded block, which should not be modified afterwards
+	 * @param expectedUses number of times this block will be requested before
+	 *                     it can be dropped, or a negative value to keep it
+	 *                     until it is evicted
+	 */
+	public void put(TileKey key, byte[] data, int expectedUses) {
+		store(key, data, expectedUses);
+	}
+
+	/**
+	 * @param key identifier of the block
+	 * @return the block if it is in the cache, null otherwise. This counts as one use of the block.
+	 */
+	public byte[] getIfPresent(TileKey key) {
+		return take(key);
+	}
+
+	/**
+	 * @param key identifier of the block
+	 * @return true if the block is in the cache. This does not count as a use of the block.
+	 */
+	public synchronized boolean contains(TileKey key) {
+		return blocks.containsKey(key);
+	}
+
+	/**
+	 * Removes all blocks from the cache
+	 */
+	public synchronized void clear() {
+		blocks.clear();
+		currentBytes = 0;
+	}
+
+	/**
+	 * @return the number of bytes currently held by the cache
+	 */
+	public long getCurrentBytes() {
+		return currentBytes;
+	}
+
+	/**
+	 * @return the maximal number of bytes held by the cache
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	private synchronized byte[] take(TileKey key) {
+		Block block = blocks.get(key);
+		if (block == null) return null;
+		block.lastAccess = accessClock.incrementAndGet();
+		if (block.remainingUses > 0) {
+			block.remainingUses--;
+			if (block.remainingUses == 0) {
+				blocks.remove(key);
+				currentBytes -= block.data.length;
+			}
+		}
+		return block.data;
+	}
+
+	private void store(TileKey key, byte[] data, int remainingUses) {
+		if ((remainingUses == 0) || (data.length > maxBytes) || (data.length > getGlobalMaxBytes())) return;
+		synchronized (this) {
+			Block previous = blocks.put(key, new Block(data, remainingUses, accessClock.incrementAndGet()));
+			long bytes = currentBytes + data.length;
+			if (previous != null) bytes -= previous.data.length;
+			Iterator<Block> it = blocks.values().iterator();
+			while ((bytes > maxBytes) && it.hasNext()) {
+				bytes -= it.next().data.length;
+				it.remove();
+			}
+			currentBytes = bytes;
+		}
+		enforceGlobalBudget();
+	}
+
+	/**
+	 * Evicts the least recently used blocks of all caches until they fit in the global budget.
+	 * Only the lock of one cache is held at a time.
+	 */
+	private static void enforceGlobalBudget() {
+		long maxGlobalBytes = getGlobalMaxBytes();
+		List<DecodedTileCache> allCaches = getCaches();
+		long total = 0;
+		for (DecodedTileCache cache : allCaches) {
+			total += cache.currentBytes;
+		}
+		while (total > maxGlobalBytes) {
+			DecodedTileCache lruCache = null;
+			long lruAccess = Long.MAX_VALUE;
+			for (DecodedTileCache cache : allCaches) {
+				long access = cache.getEldestAccess();
+				if (access < lruAccess) {
+					lruAccess = access;
+					lruCache = cache;
+				}
+			}
+			if (lruCache == null) return; // Everything has been evicted in the meantime
+			total -= lruCache.evictEldest();
+		}
+	}
+
+	/**
+	 * @return the last access of the least recently used block, {@link Long#MAX_VALUE} if the cache is empty
+	 */
+	private synchronized long getEldestAccess() {
+		Iterator<Block> it = blocks.values().iterator();
+		return it.hasNext() ? it.next().lastAccess : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Removes the least recently used block
+	 * @return the number of bytes freed
+	 */
+	private synchronized long evictEldest() {
+		Iterator<Block> it = blocks.values().iterator();
+		if (!it.hasNext()) return 0;
+		long freed = it.next().data.length;
+		it.remove();
+		currentBytes -= freed;
+		return freed;
+	}
+
+	private static class Block {
+		final byte[] data;
+		int remainingUses;
+		long lastAccess;
+
+		Block(byte[] data, int remainingUses, long lastAccess) {
+			this.data = data;
+			this.remainingUses = remainingUses;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * Identifies a block of pixels of a plane, at a given series and resolution level
+	 */
+	public static final class TileKey {
+		final int series, level, plane, x, y, w, h;
+
+		public TileKey(int series, int level, int plane, int x, int y, int w, int h) {
+			this.series = series;
+			this.level = level;
+			this.plane = plane;
+			this.x = x;
+			this.y = y;
+			this.w = w;
+			this.h = h;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof TileKey)) return false;
+			TileKey other = (TileKey) o;
+			return series == other.series && level == other.level && plane == other.plane &&
+					x == other.x && y == other.y && w == other.w && h == other.h;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(series, level, plane, x, y, w, h);
+		}
+
+		@Override
+		public String toString() {
+			return "s" + series + ".l" + level + ".p" + plane + "[" + x + "," + y + "," + w + "x" + h + "]";
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img.bioformats;
+
+import loci.formats.FormatTools;
+import net.imglib2.type.NumericType;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Conversions of pixels to a narrower type, done while decoding the pixels
+ * read by Bio-Formats, in order to keep more data in the cache for the same
+ * memory. Integer targets are obtained with a linear mapping of a window
+ * [min, max] of the source values onto the full range of the target type.
+ * <p>
+ * Set with {@link ch.epfl.biop.bdv.img.opener.OpenerSettings#narrowPrecision(String)}
+ */
+public enum PrecisionNarrowing {
+
+	FLOAT32_TO_UINT16("float32_to_uint16", FormatTools.FLOAT, FormatTools.UINT16, PrecisionNarrowing::getFloatRange) {
+
+		@Override
+		public Type<? extends NumericType<?>> getTargetType() {
+			return new UnsignedShortType();
+		}
+	},
+
+	UINT16_TO_UINT8("uint16_to_uint8", FormatTools.UINT16, FormatTools.UINT8, PrecisionNarrowing::getUnsignedShortRange) {
+
+		@Override
+		public Type<? extends NumericType<?>> getTargetType() {
+			return new UnsignedByteType();
+		}
+	},
+
+	// Values are kept, only their precision is reduced: no window
+	FLOAT64_TO_FLOAT32("float64_to_float32", FormatTools.DOUBLE, FormatTools.FLOAT, null) {
+
+		@Override
+		public Type<? extends NumericType<?>> getTargetType() {
+			return new FloatType();
+		}
+	};
+
+	/**
+	 * Min and max values of raw pixels, to estimate the window of a narrowing
+	 */
+	@FunctionalInterface
+	interface RangeEstimator {
+		double[] getRange(byte[] bytes, int nBytes, ByteOrder byteOrder);
+	}
+
+	final String option;
+	final int sourcePixelType;
+	final int targetPixelType;
+	final RangeEstimator rangeEstimator; // null for narrowings without window
+
+	PrecisionNarrowing(String option, int sourcePixelType, int targetPixelType, RangeEstimator rangeEstimator) {
+		this.option = option;
+		this.sourcePixelType = sourcePixelType;
+		this.targetPixelType = targetPixelType;
+		this.rangeEstimator = rangeEstimator;
+	}
+
+	/**
+	 * @return the value of this narrowing in opener options
+	 */
+	public String getOption() {
+		return option;
+	}
+
+	/**
+	 * @return the Bio-Formats pixel type ({@link FormatTools}) this narrowing applies to
+	 */
+	public int getSourcePixelType() {
+		return sourcePixelType;
+	}
+
+	/**
+	 * @return the Bio-Formats pixel type ({@link FormatTools}) of the narrowed pixels
+	 */
+	public int getTargetPixelType() {
+		return targetPixelType;
+	}
+
+	/**
+	 * @return whether the values are mapped linearly through a window
+	 */
+	public boolean needsWindow() {
+		return rangeEstimator != null;
+	}
+
+	/**
+	 * @return the type of the narrowed pixels
+	 */
+	public abstract Type<? extends NumericType<?>> getTargetType();
+
+	/**
+	 * @return the estimator of the min and max finite values of the raw pixels, used to
+	 * estimate the window, or null if this narrowing doesn't {@link #needsWindow() need a window}
+	 */
+	RangeEstimator getRangeEstimator() {
+		return rangeEstimator;
+	}
+
+	private static double[] getFloatRange(byte[] bytes, int nBytes, ByteOrder byteOrder) {
+		FloatBuffer floats = ByteBuffer.wrap(bytes, 0, nBytes).order(byteOrder).asFloatBuffer();
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for (int i = 0; i < nBytes / 4; i++) {
+			float v = floats.get(i);
+			if (Float.isFinite(v)) {
+				if (v < min) min = v;
+				if (v > max) max = v;
+			}
+		}
+		return new double[] { min, max };
+	}
+
+	private static double[] getUnsignedShortRange(byte[] bytes, int nBytes, ByteOrder byteOrder) {
+		ShortBuffer shorts = ByteBuffer.wrap(bytes, 0, nBytes).order(byteOrder).asShortBuffer();
+		int min = 65535, max = 0;
+		for (int i = 0; i < nBytes / 2; i++) {
+			int v = shorts.get(i) & 0xffff;
+			if (v < min) min = v;
+			if (v > max) max = v;
+		}
+		return new double[] { min, max };
+	}
+
+	/**
+	 * Checks a window given by the user
+	 * @param min source value mapped to 0
+	 * @param max source value mapped to the maximal value of the target type
+	 * @throws IllegalArgumentException if a bound is not finite, or if min is not below max
+	 */
+	public static void checkWindow(double min, double max) {
+		if (!Double.isFinite(min) || !Double.isFinite(max) || !(min < max)) {
+			throw new IllegalArgumentException("Invalid precision narrowing window [" + min + ", " + max +
+					"]: min and max should be finite, with min < max");
+		}
+	}
+
+	/**
+	 * @param option option value, see {@link #getOption()}, case insensitive
+	 * @return the matching narrowing, or null if the option is null or empty
+	 * @throws IllegalArgumentException if the option is unknown
+	 */
+	public static PrecisionNarrowing fromOption(String option) {
+		if ((option == null) || option.trim().isEmpty()) return null;
+		for (PrecisionNarrowing narrowing : values()) {
+			if (narrowing.option.equalsIgnoreCase(option.trim())) return narrowing;
+		}
+		throw new IllegalArgumentException("Unknown precision narrowing " + option +
+				", possible values: float32_to_uint16, uint16_to_uint8, float64_to_float32");
+	}
+
+}
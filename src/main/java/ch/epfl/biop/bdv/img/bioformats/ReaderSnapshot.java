@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img.bioformats;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import loci.formats.IFormatReader;
+import loci.formats.Memoizer;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory serialized state of an initialized Bio-Formats reader, from which
+ * new readers of the same file are cloned without parsing the file again.
+ * <p>
+ * This is what a {@link Memoizer} does with its memo file, but kept in memory and
+ * for every format: the state is captured once, from the first reader created
+ * by the pool, with the same Kryo serialization as Bio-Formats memo files. A
+ * clone only needs to deserialize this state and reopen its file handles.
+ * <p>
+ * If the state of a reader can't be captured or restored, readers are created
+ * from scratch, as without snapshot.
+ */
+class ReaderSnapshot {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReaderSnapshot.class);
+
+	private final String dataLocation;
+	private final AtomicBoolean captured = new AtomicBoolean();
+	private volatile byte[] state;
+
+	ReaderSnapshot(String dataLocation) {
+		this.dataLocation = dataLocation;
+	}
+
+	/**
+	 * Captures the state of a freshly initialized reader, if no state has been captured yet.
+	 * The reader should not be used by another thread during the capture.
+	 * @param reader an initialized reader
+	 */
+	void capture(IFormatReader reader) {
+		if ((reader == null) || captured.get() || !captured.compareAndSet(false, true)) return;
+		// The memoizer itself holds its serializer: only the reader it wraps is kept, as in memo files
+		IFormatReader toSave = (reader instanceof Memoizer) ? ((Memoizer) reader).getReader() : reader;
+		long start = System.currentTimeMillis();
+		try {
+			// File handles can't be serialized
+			toSave.close(true);
+			try (Output output = new Output(1 << 16, -1)) {
+				newKryo().writeClassAndObject(output, toSave);
+				state = output.toBytes();
+			}
+			logger.debug("Captured the state of a reader of " + dataLocation + " (" + state.length / 1024 +
+					" kB) in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (Exception | LinkageError e) {
+			logger.info("Readers of " + dataLocation + " can't be cloned, they will be initialized from the file: " +
+					e.getMessage());
+		} finally {
+			try {
+				toSave.reopenFile();
+			} catch (Exception e) {
+				throw new RuntimeException("Could not reopen " + dataLocation, e);
+			}
+		}
+	}
+
+	/**
+	 * @return a new reader in the captured state, with its file reopened, or null if
+	 * no state is available
+	 */
+	IFormatReader restore() {
+		byte[] bytes = state;
+		if (bytes == null) return null;
+		try (Input input = new Input(bytes)) {
+			IFormatReader reader = (IFormatReader) newKryo().readClassAndObject(input);
+			reader.reopenFile();
+			return reader;
+		} catch (Exception | LinkageError e) {
+			// Don't try again: a reader will be initialized from the file instead
+			state = null;
+			logger.warn("Could not clone a reader of " + dataLocation + ", readers will be initialized from the file: " +
+					e.getMessage());
+			return null;
+		}
+	}
+
+	private static Kryo newKryo() {
+		// Kryo instances are not thread safe, and cheap compared to a reader
+		Kryo kryo = new Kryo();
+		kryo.setRegistrationRequired(false);
+		kryo.setReferences(true);
+		// Readers and metadata objects don't all have a no-arg constructor
+		kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+		return kryo;
+	}
+
+}
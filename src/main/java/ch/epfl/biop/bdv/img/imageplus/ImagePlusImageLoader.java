@@ -24,9 +24,11 @@ package ch.epfl.biop.bdv.img.imageplus;
 
 import bdv.AbstractViewerSetupImgLoader;
 import bdv.ViewerImgLoader;
+import bdv.cache.SharedQueue;
 import bdv.img.cache.CacheArrayLoader;
 import bdv.img.cache.VolatileGlobalCellCache;
 import ch.epfl.biop.bdv.img.CacheControlOverride;
+import ch.epfl.biop.bdv.img.SharedFetchScheduler;
 import ij.ImagePlus;
 import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
 import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
@@ -123,6 +125,10 @@ public class ImagePlusImageLoader<T extends NativeType<T>, V extends Volatile<T>
 
 	private VolatileGlobalCellCache cache;
 
+	private final SharedQueue sq;
+
+	private SharedFetchScheduler.Share fetchShare;
+
 	private final long[] dimensions;
 
 	private final int[] cellDimensions;
@@ -168,7 +174,8 @@ public class ImagePlusImageLoader<T extends NativeType<T>, V extends Volatile<T>
 				.getNSlices() };
 		cellDimensions = new int[] { imp.getWidth(), imp.getHeight(), 1 };
 		final int numSetups = imp.getNChannels();
-		cache = new VolatileGlobalCellCache(1, 1);
+		sq = new SharedQueue(1, 1);
+		cache = new VolatileGlobalCellCache(sq);
 		setupImgLoaders = new HashMap<>();
 		for (int setupId = 0; setupId < numSetups; ++setupId)
 			setupImgLoaders.put(setupId, new SetupImgLoader(setupId, type,
@@ -187,12 +194,27 @@ public class ImagePlusImageLoader<T extends NativeType<T>, V extends Volatile<T>
 	}
 
 	@Override
-	public void setCacheControl(VolatileGlobalCellCache cache)  {
-		CacheControlOverride.Tools.shutdownCacheQueue(this.cache);
-		this.cache.clearCache();
+	public synchronized void setCacheControl(VolatileGlobalCellCache cache)  {
+		if (cache == this.cache) return;
+		if (fetchShare != null) {
+			SharedFetchScheduler.getInstance().leave(fetchShare);
+			fetchShare = null;
+		} else {
+			sq.shutdown();
+			this.cache.clearCache();
+		}
 		this.cache = cache;
 	}
 
+	/**
+	 * Makes this loader load its slices with the threads of the {@link SharedFetchScheduler},
+	 * and releases its own queue and cache.
+	 */
+	public synchronized void joinSharedFetchScheduler() {
+		if (fetchShare != null) return;
+		fetchShare = SharedFetchScheduler.getInstance().join(this, imp.getTitle(), 1);
+	}
+
 	@Override
 	public SetupImgLoader getSetupImgLoader(final int setupId) {
 		return setupImgLoaders.get(setupId);
@@ -23,6 +23,7 @@
 package ch.epfl.biop.bdv.img.omero;
 
 import bdv.img.cache.CacheArrayLoader;
+import ch.epfl.biop.bdv.img.ParallelCellReads;
 import ch.epfl.biop.bdv.img.ResourcePool;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
@@ -66,6 +67,56 @@ public class OmeroArrayLoaders {
 			this.sz = sz;
 		}
 
+		/**
+		 * Reads all planes of a cell and concatenates their bytes. Planes are read
+		 * in parallel if the pool allows it, see {@link ParallelCellReads}
+		 *
+		 * @param timepoint timepoint of the cell
+		 * @param level resolution level of the cell
+		 * @param dimensions dimensions of the cell
+		 * @param min position of the cell
+		 * @param bytesPerPixel number of bytes per pixel
+		 * @return the bytes of all planes of the cell
+		 * @throws Exception if the pixel store can't be acquired or the pixels can't be read
+		 */
+		protected byte[] readCellBytes(int timepoint, int level, int[] dimensions, long[] min,
+									   int bytesPerPixel) throws Exception
+		{
+			pixelStorePool.startWarmUp(); // No-op after the first cell
+			// get the reader, which goes back to the pool whatever happens
+			try (ResourcePool<RawPixelsStorePrx>.Lease lease = pixelStorePool.lease()) {
+				RawPixelsStorePrx rawPixStore = lease.get();
+				try {
+					rawPixStore.setResolutionLevel(nResolutionLevels - 1 - level);
+					int minX = (int) min[0];
+					int minY = (int) min[1];
+					int minZ = (int) min[2];
+					int maxX = Math.min(minX + dimensions[0], sx);
+					int maxY = Math.min(minY + dimensions[1], sy);
+					int maxZ = Math.min(minZ + dimensions[2], sz);
+					int w = maxX - minX;
+					int h = maxY - minY;
+					int d = maxZ - minZ;
+					int nBytesPerPlane = w * h * bytesPerPixel;
+
+					// read pixels
+					byte[] cellBytes = new byte[nBytesPerPlane * d];
+					ParallelCellReads.read(pixelStorePool, rawPixStore, d,
+						store -> store.setResolutionLevel(nResolutionLevels - 1 - level),
+						(store, iPlane) -> {
+							byte[] bytes = store.getTile(minZ + iPlane, channel, timepoint, minX, minY, w, h);
+							System.arraycopy(bytes, 0, cellBytes, iPlane * nBytesPerPlane, bytes.length);
+						});
+					return cellBytes;
+				} catch (RuntimeException e) {
+					// Connection errors (Ice exceptions) leave the store unusable: replace it.
+					// Server side errors (ServerError) don't break it.
+					lease.invalidate();
+					throw e;
+				}
+			}
+		}
+
 	}
 
 	/**
@@ -86,32 +137,8 @@ public class OmeroArrayLoaders {
 										   int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				RawPixelsStorePrx rawPixStore = pixelStorePool.acquire();
-				rawPixStore.setResolutionLevel(nResolutionLevels - 1 - level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], sx);
-				int maxY = Math.min(minY + dimensions[1], sy);
-				int maxZ = Math.min(minZ + dimensions[2], sz);
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytesCurrentPlane = rawPixStore.getTile(z, channel, timepoint, minX, minY,
-							w, h);
-					buffer.put(bytesCurrentPlane);
-				}
-
-				// release the reader
-				pixelStorePool.recycle(rawPixStore);
-
-				return new VolatileByteArray(buffer.array(), true);
+				byte[] cellBytes = readCellBytes(timepoint, level, dimensions, min, 1);
+				return new VolatileByteArray(cellBytes, true);
 			}
 			catch (Exception e) {
 				throw new InterruptedException(e.getMessage());
@@ -153,34 +180,12 @@ public class OmeroArrayLoaders {
 			int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				RawPixelsStorePrx rawPixStore = pixelStorePool.acquire();
-				rawPixStore.setResolutionLevel(nResolutionLevels - 1 - level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], sx);
-				int maxY = Math.min(minY + dimensions[1], sy);
-				int maxZ = Math.min(minZ + dimensions[2], sz);
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements * 2);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytes = rawPixStore.getTile(z, channel, timepoint, minX, minY,
-						w, h);
-					buffer.put(bytes);
-				}
-
-				// release the reader
-				pixelStorePool.recycle(rawPixStore);
+				byte[] cellBytes = readCellBytes(timepoint, level, dimensions, min, 2);
+				int nElements = cellBytes.length / 2;
+				ByteBuffer buffer = ByteBuffer.wrap(cellBytes);
 
 				// unsigned short specific transform
 				short[] shorts = new short[nElements];
-				buffer.flip();
 				buffer.order(byteOrder).asShortBuffer().get(shorts);
 				return new VolatileShortArray(shorts, true);
 			}
@@ -221,34 +226,12 @@ public class OmeroArrayLoaders {
 			int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				RawPixelsStorePrx rawPixStore = pixelStorePool.acquire();
-				rawPixStore.setResolutionLevel(nResolutionLevels - 1 - level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], sx);
-				int maxY = Math.min(minY + dimensions[1], sy);
-				int maxZ = Math.min(minZ + dimensions[2], sz);
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements * 4);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytes = rawPixStore.getTile(z, channel, timepoint, minX, minY,
-						w, h);
-					buffer.put(bytes);
-				}
-
-				// release the reader
-				pixelStorePool.recycle(rawPixStore);
+				byte[] cellBytes = readCellBytes(timepoint, level, dimensions, min, 4);
+				int nElements = cellBytes.length / 4;
+				ByteBuffer buffer = ByteBuffer.wrap(cellBytes);
 
 				// float specific transform
 				float[] floats = new float[nElements];
-				buffer.flip();
 				buffer.order(byteOrder).asFloatBuffer().get(floats);
 				return new VolatileFloatArray(floats, true);
 			}
@@ -315,34 +298,12 @@ public class OmeroArrayLoaders {
 			int[] dimensions, long[] min) throws InterruptedException
 		{
 			try {
-				// get the reader
-				RawPixelsStorePrx rawPixStore = pixelStorePool.acquire();
-				rawPixStore.setResolutionLevel(nResolutionLevels - 1 - level);
-				int minX = (int) min[0];
-				int minY = (int) min[1];
-				int minZ = (int) min[2];
-				int maxX = Math.min(minX + dimensions[0], sx);
-				int maxY = Math.min(minY + dimensions[1], sy);
-				int maxZ = Math.min(minZ + dimensions[2], sz);
-				int w = maxX - minX;
-				int h = maxY - minY;
-				int d = maxZ - minZ;
-				int nElements = (w * h * d);
-
-				// read pixels
-				ByteBuffer buffer = ByteBuffer.allocate(nElements * 4);
-				for (int z = minZ; z < maxZ; z++) {
-					byte[] bytes = rawPixStore.getTile(z, channel, timepoint, minX, minY,
-						w, h);
-					buffer.put(bytes);
-				}
-
-				// release the reader
-				pixelStorePool.recycle(rawPixStore);
+				byte[] cellBytes = readCellBytes(timepoint, level, dimensions, min, 4);
+				int nElements = cellBytes.length / 4;
+				ByteBuffer buffer = ByteBuffer.wrap(cellBytes);
 
 				// int specific transform
 				int[] ints = new int[nElements];
-				buffer.flip();
 				buffer.order(byteOrder).asIntBuffer().get(ints);
 				return new VolatileIntArray(ints, true);
 			}
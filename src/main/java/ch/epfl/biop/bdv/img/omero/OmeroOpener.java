@@ -219,9 +219,13 @@ public class OmeroOpener implements Opener<RawPixelsStorePrx> {
 		rawPixelDataKey = "opener.omero."+host+"."+omeroImageID;
 
 		// create a new reader pool
-		this.pool = memoize("opener.omero.pool."+host+"."+imageID, cachedObjects, () -> {
-			logger.debug("Creating pool for "+"opener.omero.pool."+host+"."+imageID);
-			return new RawPixelsStorePool(poolSize, true, this::getNewStore);
+		final String poolKey = "opener.omero.pool."+host+"."+imageID;
+		this.pool = memoize(poolKey, cachedObjects, () -> {
+			logger.debug("Creating pool for "+poolKey);
+			RawPixelsStorePool storePool = new RawPixelsStorePool(poolSize, true, this::getNewStore);
+			storePool.setName("OMERO pixel stores of image "+imageID+" on "+host);
+			storePool.getStatistics().registerMBean(poolKey);
+			return storePool;
 		});
 
 		// get the current pixel store
@@ -713,6 +717,11 @@ public class OmeroOpener implements Opener<RawPixelsStorePrx> {
 		protected RawPixelsStorePrx createObject() {
 			return rpsSupplier.get();
 		}
+
+		@Override
+		protected void destroyObject(RawPixelsStorePrx store) throws Exception {
+			store.close();
+		}
 	}
 
 }
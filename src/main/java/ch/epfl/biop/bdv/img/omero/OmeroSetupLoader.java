@@ -62,6 +62,7 @@ public class OmeroSetupLoader<T extends NumericType<T> & NativeType<T>, V extend
 	final Converter<T, FloatType> cvt;
 	final Supplier<VolatileGlobalCellCache> cacheSupplier;
 	final CacheArrayLoader<A> loader;
+	final CacheArrayLoader<A> cellLoader; // loader, backed by the disk cache if enabled
 
 
 	// -------- Resoluion levels
@@ -204,6 +205,11 @@ public class OmeroSetupLoader<T extends NumericType<T> & NativeType<T>, V extend
 			throw new UnsupportedOperationException("Pixel type " + t.getClass()
 				.getName() + " unsupported in " + OmeroSetupLoader.class.getName());
 		}
+
+		// Pixels of an OMERO image never change: the raw pixel data key identifies them
+		cellLoader = withDiskCache(loader, opener.getRawPixelDataKey()
+				+ "/" + iChannel
+				+ "/" + loader.getClass().getSimpleName());
 	}
 
 
@@ -216,12 +222,12 @@ public class OmeroSetupLoader<T extends NumericType<T> & NativeType<T>, V extend
 		final int[] cellDimensions = opener.getCellDimensions(level);
 		final CellGrid grid = new CellGrid(dims, cellDimensions);
 
-		final int priority = this.numMipmapLevels - level;
+		final int priority = getQueuePriority(level, this.numMipmapLevels);
 		final CacheHints cacheHints = new CacheHints(LoadingStrategy.BUDGETED,
 			priority, false);
 
 		return cacheSupplier.get().createImg(grid, timepointId, setup, level,
-			cacheHints, loader, volatileType);
+			cacheHints, cellLoader, volatileType);
 	}
 
 	@Override
@@ -244,12 +250,12 @@ public class OmeroSetupLoader<T extends NumericType<T> & NativeType<T>, V extend
 		final int[] cellDimensions = opener.getCellDimensions(level);
 		final CellGrid grid = new CellGrid(dims, cellDimensions);
 
-		final int priority = this.numMipmapLevels - level;
+		final int priority = getQueuePriority(level, this.numMipmapLevels);
 		final CacheHints cacheHints = new CacheHints(LoadingStrategy.BLOCKING,
 			priority, false);
 
 		return cacheSupplier.get().createImg(grid, timepointId, setup, level,
-			cacheHints, loader, type);
+			cacheHints, cellLoader, type);
 	}
 
 	@Override
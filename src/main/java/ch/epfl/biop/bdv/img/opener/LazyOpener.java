@@ -0,0 +1,300 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img.opener;
+
+import bdv.img.cache.VolatileGlobalCellCache;
+import ch.epfl.biop.bdv.img.OpenerSetupLoader;
+import ch.epfl.biop.bdv.img.ResourcePool;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.NumericType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Opener which is only created when it is first used, from its {@link OpenerSettings}.
+ * <p>
+ * The number of channels is taken from the settings when they know it, so that a dataset
+ * can be set up without opening any file. With an {@link OpenerStructure} saved with the
+ * dataset, the structure of the image and the setup loaders are also available without
+ * opening the file, until pixels are read. Any other call creates the actual opener, once.
+ * {@link #materializeInBackground(List)} creates the openers of a dataset progressively,
+ * while the ones which are displayed first are created on demand.
+ *
+ * @param <T> type of the resources of the pool of the opener
+ */
+public class LazyOpener<T> implements Opener<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(LazyOpener.class);
+
+    // Daemon threads: creating the openers in the background never keeps the JVM alive
+    private static final ExecutorService materializer = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), r -> {
+                Thread thread = new Thread(r, "bdv-opener-init");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+
+    private final OpenerSettings settings;
+    private final OpenerStructure structure; // null if unknown
+    private final Supplier<Opener<?>> factory;
+    private final CompletableFuture<Opener<?>> materialized = new CompletableFuture<>();
+    private volatile Opener<T> opener;
+    private volatile boolean closed = false;
+    private volatile IllegalStateException failure; // set if the actual opener does not match the dataset
+
+    /**
+     * @param settings settings of the opener, which may know its number of channels
+     * @param factory creates the actual opener, should not throw
+     */
+    public LazyOpener(OpenerSettings settings, Supplier<Opener<?>> factory) {
+        this(settings, null, factory);
+    }
+
+    /**
+     * @param settings settings of the opener
+     * @param structure structure of the image, validated against the settings, or null if unknown
+     * @param factory creates the actual opener, should not throw
+     */
+    public LazyOpener(OpenerSettings settings, OpenerStructure structure, Supplier<Opener<?>> factory) {
+        this.settings = settings;
+        this.structure = structure;
+        this.factory = factory;
+    }
+
+    /**
+     * @return the actual opener, created on first call
+     * @throws IllegalStateException if this opener has been closed, or if the actual opener
+     * does not have the number of channels the dataset was set up with
+     */
+    @SuppressWarnings("unchecked")
+    public Opener<T> get() {
+        Opener<T> result = opener;
+        if (result != null) return result;
+        synchronized (this) {
+            if (opener == null) {
+                if (closed) throw new IllegalStateException("Opener " + settings.getLocation() + " has been closed");
+                if (failure != null) throw failure;
+                long start = System.currentTimeMillis();
+                Opener<T> created = (Opener<T>) factory.get();
+                logger.debug("Opener " + settings.getLocation() + " created in " + (System.currentTimeMillis() - start) + " ms");
+                try {
+                    checkNChannels(created);
+                } catch (IllegalStateException e) {
+                    // Not created again on each call: the saved dataset has to be fixed
+                    failure = e;
+                    materialized.completeExceptionally(e);
+                    try {
+                        created.close();
+                    } catch (IOException closeException) {
+                        logger.warn("Could not close opener " + settings.getLocation() + ": " + closeException.getMessage());
+                    }
+                    throw e;
+                }
+                opener = created;
+                materialized.complete(opener);
+            }
+            return opener;
+        }
+    }
+
+    // The dataset registered its setups with the number of channels announced before the
+    // opener existed: a different number means the settings or the structure are stale, and
+    // the setups would read the wrong channels
+    private void checkNChannels(Opener<T> created) {
+        int announced = (structure != null) ? structure.getNChannels() : settings.getNChannels();
+        if (announced <= 0) return;
+        int actual = created.getNChannels();
+        if (actual != announced) {
+            throw new IllegalStateException("Opener " + settings.getLocation() + " has " + actual + " channels, but " +
+                    announced + " were expected from the " + ((structure != null) ? "saved structure" : "settings") +
+                    ": the dataset should be opened again from the file and saved");
+        }
+    }
+
+    /**
+     * @return true if the actual opener has been created
+     */
+    public boolean isMaterialized() {
+        return opener != null;
+    }
+
+    /**
+     * @return a future completed with the actual opener once it has been created
+     */
+    public CompletableFuture<Opener<?>> whenMaterialized() {
+        return materialized;
+    }
+
+    public OpenerSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return the structure of the image this opener was created with, or null if unknown
+     */
+    public OpenerStructure getStructure() {
+        return structure;
+    }
+
+    // True while the image structure can be answered without creating the actual opener
+    private boolean useStructure() {
+        return (structure != null) && (opener == null);
+    }
+
+    /**
+     * Creates the lazy openers of the list which are not created yet in background threads,
+     * in the order of the list. Openers which are needed before are created by the caller.
+     * Openers with a known structure are left to be created when their pixels are read.
+     * @param openers openers of a dataset, which are not all lazy
+     */
+    public static void materializeInBackground(List<? extends Opener<?>> openers) {
+        for (Opener<?> opener : openers) {
+            if (!(opener instanceof LazyOpener)) continue;
+            LazyOpener<?> lazyOpener = (LazyOpener<?>) opener;
+            if (lazyOpener.isMaterialized() || (lazyOpener.structure != null)) continue;
+            materializer.submit(() -> {
+                if (lazyOpener.closed) return;
+                try {
+                    lazyOpener.get();
+                } catch (Exception e) {
+                    if (lazyOpener.closed) return; // Closed in the meantime
+                    logger.error("Could not create opener " + lazyOpener.settings.getLocation() + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the number of channels given by the settings, or of the actual opener if they don't know it
+     */
+    @Override
+    public int getNChannels() {
+        if (useStructure()) return structure.getNChannels();
+        if ((opener == null) && (settings.getNChannels() > 0)) return settings.getNChannels();
+        return get().getNChannels();
+    }
+
+    @Override
+    public int[] getCellDimensions(int level) {
+        if (useStructure()) return structure.getCellDimensions(level);
+        return get().getCellDimensions(level);
+    }
+
+    @Override
+    public Dimensions[] getDimensions() {
+        if (useStructure()) return structure.getDimensions();
+        return get().getDimensions();
+    }
+
+    @Override
+    public int getNTimePoints() {
+        if (useStructure()) return structure.getNTimePoints();
+        return get().getNTimePoints();
+    }
+
+    @Override
+    public int getNumMipmapLevels() {
+        if (useStructure()) return structure.getNumMipmapLevels();
+        return get().getNumMipmapLevels();
+    }
+
+    @Override
+    public ResourcePool<T> getPixelReader() {
+        return get().getPixelReader();
+    }
+
+    @Override
+    public Type<? extends NumericType<?>> getPixelType() {
+        if (useStructure()) return structure.createPixelType();
+        return get().getPixelType();
+    }
+
+    @Override
+    public VoxelDimensions getVoxelDimensions() {
+        if (useStructure()) return structure.getVoxelDimensions();
+        return get().getVoxelDimensions();
+    }
+
+    @Override
+    public boolean isLittleEndian() {
+        if (useStructure()) return structure.isLittleEndian();
+        return get().isLittleEndian();
+    }
+
+    @Override
+    public String getImageFormat() {
+        if (useStructure()) return structure.getImageFormat();
+        return get().getImageFormat();
+    }
+
+    /**
+     * @return a setup loader which creates the actual opener when an image is requested if the
+     * structure of the image is known, the setup loader of the actual opener otherwise
+     */
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OpenerSetupLoader<?, ?, ?> getSetupLoader(int channelIdx, int setupIdx, Supplier<VolatileGlobalCellCache> cacheSupplier) {
+        if (useStructure()) {
+            NumericType type = (NumericType) structure.createPixelType();
+            return new LazySetupLoader(structure, type, OpenerHelper.getVolatileOf(type),
+                    () -> get().getSetupLoader(channelIdx, setupIdx, cacheSupplier));
+        }
+        return get().getSetupLoader(channelIdx, setupIdx, cacheSupplier);
+    }
+
+    @Override
+    public String getRawPixelDataKey() {
+        // Same key before and after the opener is created: setup loaders are registered with it
+        if (structure != null) return structure.getRawPixelDataKey();
+        return get().getRawPixelDataKey();
+    }
+
+    @Override
+    public OpenerMeta getMeta() {
+        return get().getMeta();
+    }
+
+    /**
+     * Closes the actual opener if it has been created, and prevents its creation otherwise
+     */
+    @Override
+    public void close() throws IOException {
+        Opener<T> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = opener;
+        }
+        if (toClose != null) toClose.close();
+    }
+
+}
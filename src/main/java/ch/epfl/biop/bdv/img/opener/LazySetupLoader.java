@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img.opener;
+
+import ch.epfl.biop.bdv.img.OpenerSetupLoader;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import java.util.function.Supplier;
+
+/**
+ * Setup loader built from an {@link OpenerStructure}: resolution levels, sizes and voxel
+ * dimensions are known without opening the image. The setup loader of the actual opener
+ * is only created when an image of the setup is requested.
+ *
+ * @param <T> pixel type
+ * @param <V> volatile pixel type
+ * @param <A> access type
+ */
+public class LazySetupLoader<T extends NumericType<T> & NativeType<T>, V extends Volatile<T> & NumericType<V> & NativeType<V>, A>
+        extends OpenerSetupLoader<T, V, A> {
+
+    private final OpenerStructure structure;
+    private final Supplier<OpenerSetupLoader<T, V, A>> factory;
+    private volatile OpenerSetupLoader<T, V, A> setupLoader;
+
+    /**
+     * @param structure structure of the image
+     * @param type pixel type of the image
+     * @param volatileType volatile pixel type of the image
+     * @param factory creates the setup loader of the actual opener
+     */
+    public LazySetupLoader(OpenerStructure structure, T type, V volatileType,
+                           Supplier<OpenerSetupLoader<T, V, A>> factory) {
+        super(type, volatileType);
+        this.structure = structure;
+        this.factory = factory;
+    }
+
+    /**
+     * @return the setup loader of the actual opener, created on first call
+     */
+    public OpenerSetupLoader<T, V, A> get() {
+        OpenerSetupLoader<T, V, A> result = setupLoader;
+        if (result != null) return result;
+        synchronized (this) {
+            if (setupLoader == null) {
+                OpenerSetupLoader<T, V, A> created = factory.get();
+                created.setNumPriorities(getNumPriorities());
+                setupLoader = created;
+            }
+            return setupLoader;
+        }
+    }
+
+    @Override
+    public void setNumPriorities(int numPriorities) {
+        super.setNumPriorities(numPriorities);
+        OpenerSetupLoader<T, V, A> created = setupLoader;
+        if (created != null) created.setNumPriorities(numPriorities);
+    }
+
+    @Override
+    public RandomAccessibleInterval<V> getVolatileImage(int timepointId, int level, ImgLoaderHint... hints) {
+        return get().getVolatileImage(timepointId, level, hints);
+    }
+
+    @Override
+    public RandomAccessibleInterval<T> getImage(int timepointId, int level, ImgLoaderHint... hints) {
+        return get().getImage(timepointId, level, hints);
+    }
+
+    @Override
+    public RandomAccessibleInterval<FloatType> getFloatImage(int timepointId, int level, boolean normalize, ImgLoaderHint... hints) {
+        return get().getFloatImage(timepointId, level, normalize, hints);
+    }
+
+    @Override
+    public RandomAccessibleInterval<FloatType> getFloatImage(int timepointId, boolean normalize, ImgLoaderHint... hints) {
+        return get().getFloatImage(timepointId, normalize, hints);
+    }
+
+    @Override
+    public Dimensions getImageSize(int timepointId, int level) {
+        return structure.getDimensions()[level];
+    }
+
+    @Override
+    public Dimensions getImageSize(int timepointId) {
+        return getImageSize(timepointId, 0);
+    }
+
+    @Override
+    public double[][] getMipmapResolutions() {
+        return structure.getMipmapResolutions();
+    }
+
+    @Override
+    public AffineTransform3D[] getMipmapTransforms() {
+        return structure.getMipmapTransforms();
+    }
+
+    @Override
+    public int numMipmapLevels() {
+        return structure.getNumMipmapLevels();
+    }
+
+    @Override
+    public VoxelDimensions getVoxelSize(int timepointId) {
+        return structure.getVoxelDimensions();
+    }
+
+}
@@ -55,18 +55,80 @@ import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.function.Supplier;
 
 public class OpenerHelper {
     private static final Logger logger = LoggerFactory.getLogger(OpenerHelper.class);
 
-    synchronized static public <T> T memoize(String key, Map<String, Object> cache, Supplier<T> getter) {
-        if (!cache.containsKey(key)) {
-            cache.put(key, getter.get());
+    /**
+     * Returns the object stored in the cache for this key, computing it with the getter if
+     * it is not there yet. Only callers asking for the same key wait for each other: objects
+     * with different keys are computed in parallel. If the getter fails, the key is removed
+     * from the cache, so a later call computes it again, and the exception is rethrown to all
+     * callers waiting for this key.
+     *
+     * @param key key of the object in the cache
+     * @param cache cache shared between openers, preferably a concurrent map since some
+     *              callers also write into it directly
+     * @param getter computes the object if it is not in the cache yet
+     * @return the cached object
+     * @param <T> type of the object
+     */
+    static public <T> T memoize(String key, Map<String, Object> cache, Supplier<T> getter) {
+        Object value;
+        Memo memo = null;
+        synchronized (cache) { // Short lock: computation happens outside
+            value = cache.get(key);
+            if ((value == null) && (!cache.containsKey(key))) {
+                memo = new Memo(getter);
+                cache.put(key, memo);
+                value = memo;
+            }
+        }
+        if (memo != null) {
+            memo.run();
         } else {
             logger.debug(key+" is reused! ");
         }
-        return (T) cache.get(key);
+        if (value instanceof Memo) {
+            return (T) ((Memo) value).getValue(key, cache);
+        }
+        return (T) value;
+    }
+
+    /**
+     * Object of the cache being computed, or already computed
+     */
+    private static class Memo extends FutureTask<Object> {
+
+        Memo(Supplier<?> getter) {
+            super(getter::get);
+        }
+
+        Object getValue(String key, Map<String, Object> cache) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException e) {
+                        // The object is needed anyway: wait for it, and restore the flag afterwards
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                synchronized (cache) {
+                    cache.remove(key, this);
+                }
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw new RuntimeException(e.getCause());
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /**
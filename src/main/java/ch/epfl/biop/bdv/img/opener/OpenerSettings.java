@@ -22,6 +22,7 @@
 package ch.epfl.biop.bdv.img.opener;
 
 import ch.epfl.biop.bdv.img.bioformats.BioFormatsOpener;
+import ch.epfl.biop.bdv.img.bioformats.PrecisionNarrowing;
 import ch.epfl.biop.bdv.img.omero.OmeroOpener;
 import ch.epfl.biop.bdv.img.pyramidize.PyramidizeOpener;
 import ch.epfl.biop.bdv.img.qupath.QuPathOpener;
@@ -81,6 +82,8 @@ public class OpenerSettings {
 
     //---- How to open the dataset (block size, number of readers per image)
     int nReader = 10; // parallel reading : number of pixel readers allowed
+    int cellReadParallelism = 1; // number of pixel readers which may read a single cell together
+    int warmUpReaders = 0; // number of pixel readers created in the background once the first cell is loaded
     boolean defaultBlockSize = true; // The block size chosen is let to be defined by the opener implementation itself
      int[] blockSize = new int[]{512,512,1};
 
@@ -102,6 +105,20 @@ public class OpenerSettings {
     // ---- For BioFormats: use memoization
     final public static String BF_MEMO_KEY = "use_bfmemo";
 
+    // ---- For BioFormats: load all channels of a tile when one of them is requested
+    final public static String BF_COLOAD_CHANNELS_KEY = "coload_channels";
+
+    // ---- For BioFormats: cells aligned on the native tiles of each resolution level
+    final public static String BF_AUTO_CELL_LAYOUT_KEY = "auto_cell_layout";
+
+    // ---- For BioFormats: conversion to a narrower pixel type while decoding, and its window
+    final public static String BF_NARROWING_KEY = "narrow_precision";
+    final public static String BF_NARROWING_MIN_KEY = "narrow_min";
+    final public static String BF_NARROWING_MAX_KEY = "narrow_max";
+
+    // ---- For BioFormats: only the first reader of a file parses the full metadata
+    final public static String BF_LIGHT_READERS_KEY = "light_readers";
+
     // ---- For QuPath: entryID
     int id = -1;
 
@@ -128,6 +145,10 @@ public class OpenerSettings {
         return nChannels;
     }
 
+    public int getReaderPoolSize() {
+        return nReader;
+    }
+
     public int getEntryId() { return id; }
     public int getSeries() { return id; }
 
@@ -155,6 +176,32 @@ public class OpenerSettings {
         return this;
     }
 
+    /**
+     * Lets idle readers of the pool help reading a single cell: planes of a 3D cell,
+     * or bands of native tiles of a 2D cell, are read concurrently. This lowers the
+     * latency of large cells when few cells are requested at a time. Helpers only use
+     * readers which are idle, so cells are read sequentially when the pool is busy.
+     * @param parallelism maximal number of readers used for a single cell, 1 (default) to disable
+     * @return builder
+     */
+    public OpenerSettings cellReadParallelism(int parallelism){
+        this.cellReadParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Creates readers in the background, with a low priority, once the first cell of the
+     * image is loaded, so that the first cells shown don't each wait for the initialisation
+     * of a new reader. Images which are never displayed are not warmed up.
+     * @param nReaders number of readers to create ahead of time (at most the reader pool size),
+     *                 0 (default) to create readers on demand only
+     * @return builder
+     */
+    public OpenerSettings warmUpReaders(int nReaders){
+        this.warmUpReaders = nReaders;
+        return this;
+    }
+
     public OpenerSettings useDefaultCacheBlockSize(boolean flag) {
         defaultBlockSize = flag;
         return this;
@@ -208,7 +255,8 @@ public class OpenerSettings {
     }
 
     /**
-     * Should not be used anymore since it was a fix for a limitation of BVV, and it's not relevant anymore
+     * Should not be used anymore since it was a fix for a limitation of BVV, and it's not relevant anymore.
+     * To reduce the memory footprint of the cache, see {@link #narrowPrecision(String)}
      * @param to16bits force conversion to 16 bits image
      * @return builder
      */
@@ -379,6 +427,94 @@ public class OpenerSettings {
         return this;
     }
 
+    /**
+     * Bio-Formats only: when a channel of a tile is loaded, also loads the same tile
+     * of the other channels stored in the same block with the same reader, and keeps them
+     * until they are requested, without leasing a reader for them.
+     * This avoids decoding several times the same data when all channels are stored together
+     * (interleaved channels, RGB channels split with {@link #splitRGBChannels(boolean)}), and is
+     * worth it when all channels are usually displayed together. Has no effect on files which
+     * store each channel in its own planes.
+     * @param flag true to co-load channels
+     * @return builder
+     */
+    public OpenerSettings coLoadChannels(boolean flag) {
+        if (flag) {
+            opt = opt + " --bfOptions " + BF_COLOAD_CHANNELS_KEY + "=true";
+        }
+        return this;
+    }
+
+    /**
+     * Bio-Formats only, with the default block size: chooses the cell size of each resolution
+     * level from the native tiles (or strips) of this level, so that each cell contains a whole
+     * number of native tiles and is neither too small nor too large (see
+     * {@link ch.epfl.biop.bdv.img.bioformats.BioFormatsOpener#AUTO_CELL_MIN_KB_PROPERTY} and
+     * {@link ch.epfl.biop.bdv.img.bioformats.BioFormatsOpener#AUTO_CELL_MAX_KB_PROPERTY}).
+     * Without it, the native tile size of the highest resolution level is used for all levels.
+     * @param flag true to adapt cells to the native tiles of each level
+     * @return builder
+     */
+    public OpenerSettings autoCellLayout(boolean flag) {
+        if (flag) {
+            opt = opt + " --bfOptions " + BF_AUTO_CELL_LAYOUT_KEY + "=true";
+        }
+        return this;
+    }
+
+    /**
+     * Bio-Formats only: converts pixels to a narrower type while they are decoded, so that
+     * twice as much data can be kept in the cache. Possible modes are {@code float32_to_uint16},
+     * {@code uint16_to_uint8} and {@code float64_to_float32}; the mode is ignored if the image
+     * has another pixel type. Integer targets map linearly the min and max values of the
+     * lowest resolution level onto the full range of the target type.
+     * @param mode narrowing mode, see {@link ch.epfl.biop.bdv.img.bioformats.PrecisionNarrowing}
+     * @return builder
+     */
+    public OpenerSettings narrowPrecision(String mode) {
+        opt = opt + " --bfOptions " + BF_NARROWING_KEY + "=" + mode;
+        return this;
+    }
+
+    /**
+     * Same as {@link #narrowPrecision(String)}, with a fixed window: source values
+     * from min to max are mapped linearly onto the full range of the target type,
+     * values outside are clamped
+     * @param mode narrowing mode
+     * @param min source value mapped to 0
+     * @param max source value mapped to the maximal value of the target type
+     * @return builder
+     * @throws IllegalArgumentException if the mode is unknown or has no window, if a bound is
+     * not finite, or if min is not below max
+     */
+    public OpenerSettings narrowPrecision(String mode, double min, double max) {
+        PrecisionNarrowing narrowing = PrecisionNarrowing.fromOption(mode);
+        if ((narrowing == null) || !narrowing.needsWindow()) {
+            throw new IllegalArgumentException("Precision narrowing " + mode + " has no window");
+        }
+        PrecisionNarrowing.checkWindow(min, max);
+        opt = opt + " --bfOptions " + BF_NARROWING_KEY + "=" + mode
+                + " --bfOptions " + BF_NARROWING_MIN_KEY + "=" + min
+                + " --bfOptions " + BF_NARROWING_MAX_KEY + "=" + max;
+        return this;
+    }
+
+    /**
+     * Bio-Formats only: only the first reader of the pool of a file parses the full OME
+     * metadata, which is kept once for all openers of the file. The other readers are
+     * only used to read pixels: they are initialized with the minimal metadata level,
+     * without original metadata, and don't use memo files. This lowers the memory used
+     * by each additional reader, in particular for plates with many series.
+     * @param flag true to create lightweight pixel readers
+     * @return builder
+     */
+    public OpenerSettings lightweightReaders(boolean flag) {
+        if (flag) {
+            opt = opt + " --bfOptions " + BF_LIGHT_READERS_KEY + "=true";
+        }
+        return this;
+    }
+
     transient boolean skipMeta = false;
 
     public OpenerSettings skipMeta() {
@@ -454,6 +590,14 @@ public class OpenerSettings {
                 throw new UnsupportedOperationException(this.type +" opener not supported");
         }
 
+        if (cellReadParallelism > 1) {
+            opener.getPixelReader().setIntraCellParallelism(cellReadParallelism);
+        }
+
+        if (warmUpReaders > 0) {
+            opener.getPixelReader().setWarmUpSize(warmUpReaders);
+        }
+
         if (opener.getNChannels()!=-1) {
             nChannels = opener.getNChannels();
         }
@@ -0,0 +1,265 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img.opener;
+
+import ch.epfl.biop.bdv.img.OpenerSetupLoader;
+import ch.epfl.biop.bdv.img.bioformats.BioFormatsOpener;
+import ch.epfl.biop.bdv.img.qupath.QuPathOpener;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.NumericType;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Structure of an opened image: everything a setup loader needs before reading pixels
+ * (dimensions and cells per level, pixel type, resolutions, ...).
+ * <p>
+ * It is saved in the dataset xml next to the {@link OpenerSettings}, so that a dataset
+ * can be reopened without accessing its files until pixels are read, see {@link LazyOpener}.
+ * Fields are plain arrays and strings, serialized with Gson.
+ * <p>
+ * The structure is discarded when the settings or the files of the image changed since
+ * it was saved. Besides the main file, the other files holding pixels of a Bio-Formats
+ * image (.ets files of a VSI, files of a multi-file dataset...) are checked. No structure
+ * is saved for images stored in a directory (zarr...) nor spread over too many files, nor
+ * for OMERO images, which can change on the server without a way to tell.
+ */
+public class OpenerStructure {
+
+    // Images with more files are opened from their files, checking all of them would be slow
+    static final int MAX_STAMPED_FILES = 256;
+
+    // Validation: the structure is discarded if the settings or a file changed since it was saved
+    String location;
+    String settingsFingerprint;
+    long fileSize = -1;
+    long lastModified = -1;
+    // Other files holding pixels of the image, with their size and date
+    String[] usedFiles = new String[0];
+    long[] usedFileSizes = new long[0];
+    long[] usedFileDates = new long[0];
+
+    String rawPixelDataKey;
+    String imageFormat;
+    boolean littleEndian;
+    int nChannels;
+    int nTimePoints;
+    long[][] dimensions; // per resolution level
+    int[][] cellDimensions; // per resolution level
+    String pixelType; // class of the pixel type
+    String voxelUnit;
+    double[] voxelSize;
+    double[][] mipmapResolutions;
+    double[][] mipmapTransforms; // row packed
+
+    /**
+     * @param settings settings the opener has been created with
+     * @param opener opened image
+     * @param setupLoader a setup loader of the image, for its resolution levels
+     * @return the structure of the image, or null if it could not be validated when reopened
+     */
+    public static OpenerStructure capture(OpenerSettings settings, Opener<?> opener, OpenerSetupLoader<?,?,?> setupLoader) {
+        OpenerStructure structure = new OpenerStructure();
+        if (!structure.stamp(settings, getUsedFiles(opener))) return null;
+        structure.rawPixelDataKey = opener.getRawPixelDataKey();
+        structure.imageFormat = opener.getImageFormat();
+        structure.littleEndian = opener.isLittleEndian();
+        structure.nChannels = opener.getNChannels();
+        structure.nTimePoints = opener.getNTimePoints();
+        int numLevels = opener.getNumMipmapLevels();
+        Dimensions[] dims = opener.getDimensions();
+        structure.dimensions = new long[numLevels][];
+        structure.cellDimensions = new int[numLevels][];
+        for (int level = 0; level < numLevels; level++) {
+            structure.dimensions[level] = dims[level].dimensionsAsLongArray();
+            structure.cellDimensions[level] = opener.getCellDimensions(level);
+        }
+        structure.pixelType = opener.getPixelType().getClass().getName();
+        VoxelDimensions voxelDimensions = opener.getVoxelDimensions();
+        structure.voxelUnit = voxelDimensions.unit();
+        structure.voxelSize = voxelDimensions.dimensionsAsDoubleArray();
+        structure.mipmapResolutions = setupLoader.getMipmapResolutions();
+        AffineTransform3D[] transforms = setupLoader.getMipmapTransforms();
+        structure.mipmapTransforms = new double[transforms.length][];
+        for (int level = 0; level < transforms.length; level++) {
+            structure.mipmapTransforms[level] = transforms[level].getRowPackedCopy();
+        }
+        return structure;
+    }
+
+    /**
+     * Records what tells whether the image changed: the settings and the files of the image
+     * @param settings settings the opener has been created with
+     * @param files files of the image, which may contain the main file
+     * @return false if the image can't be validated when reopened
+     */
+    boolean stamp(OpenerSettings settings, String[] files) {
+        location = settings.getLocation();
+        settingsFingerprint = getSettingsFingerprint(settings);
+        File file = getLocalFile(settings);
+        if ((file == null) || file.isDirectory() || (files.length > MAX_STAMPED_FILES)) return false;
+        fileSize = file.length();
+        lastModified = file.lastModified();
+        List<String> others = new ArrayList<>();
+        for (String usedFile : files) {
+            if (!new File(usedFile).getAbsoluteFile().equals(file.getAbsoluteFile())) others.add(usedFile);
+        }
+        usedFiles = others.toArray(new String[0]);
+        usedFileSizes = new long[usedFiles.length];
+        usedFileDates = new long[usedFiles.length];
+        for (int i = 0; i < usedFiles.length; i++) {
+            File usedFile = new File(usedFiles[i]);
+            if (usedFile.isDirectory()) return false;
+            usedFileSizes[i] = usedFile.length();
+            usedFileDates[i] = usedFile.lastModified();
+        }
+        return true;
+    }
+
+    /**
+     * @param settings settings of the opener to reopen
+     * @return true if the structure has been captured with the same settings, from the same,
+     * unmodified, files. Images which are not local files (OMERO) are never valid.
+     */
+    public boolean isValidFor(OpenerSettings settings) {
+        if ((dimensions == null) || (pixelType == null) || (rawPixelDataKey == null)) return false;
+        if (!getSettingsFingerprint(settings).equals(settingsFingerprint)) return false;
+        File file = getLocalFile(settings);
+        if (file == null) return false;
+        // The location may have been fixed after the file was moved: size and date tell whether it changed
+        if (!file.exists() || (file.length() != fileSize) || (file.lastModified() != lastModified)) return false;
+        if ((usedFiles == null) || (usedFileSizes == null) || (usedFileDates == null)) return false;
+        for (int i = 0; i < usedFiles.length; i++) {
+            // Other files are stamped with their absolute path: a moved multi-file image is opened again
+            File usedFile = new File(usedFiles[i]);
+            if (!usedFile.exists() || (usedFile.length() != usedFileSizes[i]) || (usedFile.lastModified() != usedFileDates[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Settings which change the opened image. The location is left out: it may be fixed
+    // after the file is moved, and the files themselves tell whether the image changed
+    static String getSettingsFingerprint(OpenerSettings settings) {
+        return settings.type + ";entry=" + settings.id + ";options=" + settings.opt.trim() + ";unit=" + settings.unit +
+                ";splitRGB=" + settings.splitRGB + ";to16bits=" + settings.to16bits + ";pyramidize=" + settings.autoPyramidize +
+                ";blockSize=" + (settings.defaultBlockSize ? "default" : Arrays.toString(settings.blockSize));
+    }
+
+    // Files of a Bio-Formats image, including the main one, listed when the opener was created
+    private static String[] getUsedFiles(Opener<?> opener) {
+        if (opener instanceof LazyOpener) opener = ((LazyOpener<?>) opener).get();
+        if (opener instanceof QuPathOpener) opener = ((QuPathOpener<?>) opener).getOpener();
+        if (opener instanceof BioFormatsOpener) return ((BioFormatsOpener) opener).getUsedFiles();
+        return new String[0];
+    }
+
+    private static File getLocalFile(OpenerSettings settings) {
+        switch (settings.getType()) {
+            case BIOFORMATS:
+            case QUPATH:
+                return new File(settings.getLocation());
+            default:
+                return null;
+        }
+    }
+
+    public String getRawPixelDataKey() {
+        return rawPixelDataKey;
+    }
+
+    public String getImageFormat() {
+        return imageFormat;
+    }
+
+    public boolean isLittleEndian() {
+        return littleEndian;
+    }
+
+    public int getNChannels() {
+        return nChannels;
+    }
+
+    public int getNTimePoints() {
+        return nTimePoints;
+    }
+
+    public int getNumMipmapLevels() {
+        return dimensions.length;
+    }
+
+    public Dimensions[] getDimensions() {
+        Dimensions[] result = new Dimensions[dimensions.length];
+        for (int level = 0; level < dimensions.length; level++) {
+            result[level] = new FinalDimensions(dimensions[level]);
+        }
+        return result;
+    }
+
+    public int[] getCellDimensions(int level) {
+        return cellDimensions[level].clone();
+    }
+
+    /**
+     * @return a new instance of the pixel type of the image
+     */
+    @SuppressWarnings("unchecked")
+    public Type<? extends NumericType<?>> createPixelType() {
+        try {
+            return (Type<? extends NumericType<?>>) Class.forName(pixelType).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unknown pixel type " + pixelType, e);
+        }
+    }
+
+    public VoxelDimensions getVoxelDimensions() {
+        return new FinalVoxelDimensions(voxelUnit, voxelSize);
+    }
+
+    public double[][] getMipmapResolutions() {
+        double[][] result = new double[mipmapResolutions.length][];
+        for (int level = 0; level < mipmapResolutions.length; level++) {
+            result[level] = mipmapResolutions[level].clone();
+        }
+        return result;
+    }
+
+    public AffineTransform3D[] getMipmapTransforms() {
+        AffineTransform3D[] result = new AffineTransform3D[mipmapTransforms.length];
+        for (int level = 0; level < mipmapTransforms.length; level++) {
+            result[level] = new AffineTransform3D();
+            result[level].set(mipmapTransforms[level]);
+        }
+        return result;
+    }
+
+}
@@ -33,6 +33,7 @@ import net.imglib2.Volatile;
 import net.imglib2.img.basictypeaccess.DataAccess;
 import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileDoubleArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
@@ -44,6 +45,7 @@ import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.integer.ShortType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
@@ -392,6 +394,64 @@ public class PyramidizeArrayLoaders {
 		}
 	}
 
+	protected static class PyramidizeDoubleArrayLoader extends PyramidizeArrayLoader implements CacheArrayLoader<VolatileDoubleArray> {
+		final List<List<RandomAccessibleInterval<DoubleType>>> rais00 = new ArrayList<>();
+		final List<List<RandomAccessibleInterval<DoubleType>>> rais01 = new ArrayList<>();
+		final List<List<RandomAccessibleInterval<DoubleType>>> rais10 = new ArrayList<>();
+		final List<List<RandomAccessibleInterval<DoubleType>>> rais11 = new ArrayList<>();
+		protected PyramidizeDoubleArrayLoader(PyramidizeSetupLoader psl)
+		{
+			super(psl);
+		}
+
+		void init() {
+			for (int tp = 0; tp<psl.opener.getNTimePoints(); tp++) {
+				rais00.add(new ArrayList<>());
+				rais01.add(new ArrayList<>());
+				rais10.add(new ArrayList<>());
+				rais11.add(new ArrayList<>());
+				for (int level = 1; level<psl.numMipmapLevels(); level++) {
+					RandomAccessibleInterval<DoubleType> rai = Views.expandBorder(psl.getImage(tp, level-1),1,1,0);
+					rais00.get(tp).add(Views.subsample(rai,2,2,1));
+					rais01.get(tp).add(Views.subsample(Views.offsetInterval(rai, new long[]{1,0,0}, rai.dimensionsAsLongArray()),2,2,1));
+					rais10.get(tp).add(Views.subsample(Views.offsetInterval(rai, new long[]{0,1,0}, rai.dimensionsAsLongArray()),2,2,1));
+					rais11.get(tp).add(Views.subsample(Views.offsetInterval(rai, new long[]{1,1,0}, rai.dimensionsAsLongArray()),2,2,1));
+				}
+			}
+		}
+
+		@Override
+		public VolatileDoubleArray loadArray(int timepoint, int setup, int level,
+										   int[] dimensions, long[] min) {
+			assert dimensions[2]==1;
+			Interval cell = Intervals.createMinSize(min[0], min[1], min[2], dimensions[0], dimensions[1], dimensions[2]);
+
+			final Cursor<DoubleType> c00 = Views.flatIterable(Views.interval(rais00.get(timepoint).get(level-1), cell)).cursor();
+			final Cursor<DoubleType> c01 = Views.flatIterable(Views.interval(rais01.get(timepoint).get(level-1), cell)).cursor();
+			final Cursor<DoubleType> c10 = Views.flatIterable(Views.interval(rais10.get(timepoint).get(level-1), cell)).cursor();
+			final Cursor<DoubleType> c11 = Views.flatIterable(Views.interval(rais11.get(timepoint).get(level-1), cell)).cursor();
+			int nElements = (dimensions[0] * dimensions[1] * dimensions[2]);
+
+			double[] doubles = new double[nElements];
+
+			int idx = 0;
+			while (c00.hasNext()) {
+				doubles[idx] =
+						((c00.next().get()
+								+c01.next().get()
+								+c10.next().get()
+								+c11.next().get())/4.0);
+				idx++;
+			}
+			return new VolatileDoubleArray(doubles, true);
+		}
+
+		@Override
+		public int getBytesPerElement() {
+			return 8;
+		}
+	}
+
 	protected static class PyramidizeIntArrayLoader extends PyramidizeArrayLoader implements CacheArrayLoader<VolatileIntArray> {
 		final List<List<RandomAccessibleInterval<IntType>>> rais00 = new ArrayList<>();
 		final List<List<RandomAccessibleInterval<IntType>>> rais01 = new ArrayList<>();
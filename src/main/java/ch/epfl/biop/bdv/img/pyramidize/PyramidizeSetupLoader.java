@@ -44,6 +44,7 @@ import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.integer.ShortType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
 
 import java.util.ArrayList;
@@ -127,6 +128,8 @@ public class PyramidizeSetupLoader<T extends NumericType<T> & NativeType<T>, V e
                 loader = new PyramidizeArrayLoaders.PyramidizeShortArrayLoader(this);
             } else if (t instanceof FloatType) {
                 loader = new PyramidizeArrayLoaders.PyramidizeFloatArrayLoader(this);
+            } else if (t instanceof DoubleType) {
+                loader = new PyramidizeArrayLoaders.PyramidizeDoubleArrayLoader(this);
             } else if (t instanceof IntType) {
                 loader = new PyramidizeArrayLoaders.PyramidizeIntArrayLoader(this);
             } else if (t instanceof ARGBType) {
@@ -156,14 +159,14 @@ public class PyramidizeSetupLoader<T extends NumericType<T> & NativeType<T>, V e
                     newDimensions[2] = raiBelow.dimensionsAsLongArray()[2];
                     CellGrid grid = new CellGrid(newDimensions, cellDimensions);
 
-                    int priority = opener.nResolutionLevels - level;
+                    int priority = getQueuePriority(level, opener.nResolutionLevels);
                     CacheHints cacheHints = new CacheHints(LoadingStrategy.BLOCKING,
                             priority, false);
 
                     raiTL.get(tp).add(cacheSupplier.get().createImg(grid, tp, setup, level,
                             cacheHints, (CacheArrayLoader<A>) loader, type));
 
-                    priority = opener.nResolutionLevels - level;
+                    priority = getQueuePriority(level, opener.nResolutionLevels);
                     cacheHints = new CacheHints(LoadingStrategy.BUDGETED,
                             priority, false);
 
@@ -177,6 +180,12 @@ public class PyramidizeSetupLoader<T extends NumericType<T> & NativeType<T>, V e
         }
     }
 
+    @Override
+    public void setNumPriorities(int numPriorities) {
+        super.setNumPriorities(numPriorities);
+        level0SetupLoader.setNumPriorities(numPriorities);
+    }
+
     @Override
     public RandomAccessibleInterval<V> getVolatileImage(int timepointId, int level, ImgLoaderHint... hints) {
         if (level == 0) return level0SetupLoader.getVolatileImage(timepointId, level, hints);
@@ -628,6 +628,13 @@ public class QuPathOpener<T> implements Opener<T> {
 		return opener.getRawPixelDataKey();
 	}
 
+	/**
+	 * @return the opener of the image of the entry
+	 */
+	public Opener<T> getOpener() {
+		return opener;
+	}
+
 	@Override
 	public OpenerMeta getMeta() {
 		return meta;
@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img;
+
+import bdv.img.cache.CacheArrayLoader;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DiskCellCacheTest {
+
+	private static final int[] CELL = { 16, 16, 1 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void disable() {
+		DiskCellCache.disable();
+	}
+
+	// Loads cells whose values are their x position, counting the loads
+	static class CountingLoader implements CacheArrayLoader<VolatileShortArray> {
+
+		final AtomicInteger loads = new AtomicInteger();
+
+		@Override
+		public VolatileShortArray loadArray(int timepoint, int setup, int level, int[] dimensions, long[] min) {
+			loads.incrementAndGet();
+			short[] data = new short[dimensions[0] * dimensions[1] * dimensions[2]];
+			for (int i = 0; i < data.length; i++) data[i] = (short) (min[0] + i);
+			return new VolatileShortArray(data, true);
+		}
+
+		@Override
+		public int getBytesPerElement() {
+			return 2;
+		}
+	}
+
+	private static short[] load(CacheArrayLoader<VolatileShortArray> loader, long x) throws InterruptedException {
+		return loader.loadArray(0, 0, 0, CELL, new long[] { x, 0, 0 }).getCurrentStorageArray();
+	}
+
+	private static List<Path> cellFiles(DiskCellCache cache) throws Exception {
+		try (Stream<Path> paths = Files.walk(cache.getDirectory(), 2)) {
+			return paths.filter(path -> Files.isRegularFile(path) && path.toString().endsWith(".cell"))
+					.collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void cellKeyIdentifiesEachCell() {
+		String key = DiskCellCache.cellKey("file.0", 0, 0, CELL, new long[] { 0, 0, 0 });
+		assertEquals(key, DiskCellCache.cellKey("file.0", 0, 0, CELL.clone(), new long[] { 0, 0, 0 }));
+		assertNotEquals(key, DiskCellCache.cellKey("file.1", 0, 0, CELL, new long[] { 0, 0, 0 }));
+		assertNotEquals(key, DiskCellCache.cellKey("file.0", 1, 0, CELL, new long[] { 0, 0, 0 }));
+		assertNotEquals(key, DiskCellCache.cellKey("file.0", 0, 1, CELL, new long[] { 0, 0, 0 }));
+		assertNotEquals(key, DiskCellCache.cellKey("file.0", 0, 0, new int[] { 16, 8, 1 }, new long[] { 0, 0, 0 }));
+		assertNotEquals(key, DiskCellCache.cellKey("file.0", 0, 0, CELL, new long[] { 16, 0, 0 }));
+		// Timepoint and level can't be swapped
+		assertNotEquals(DiskCellCache.cellKey("file.0", 1, 2, CELL, new long[] { 0, 0, 0 }),
+				DiskCellCache.cellKey("file.0", 2, 1, CELL, new long[] { 0, 0, 0 }));
+	}
+
+	@Test
+	public void cellsAreReadBackInsteadOfLoaded() throws Exception {
+		DiskCellCache cache = DiskCellCache.enable(folder.newFolder("cells").toPath(), 1 << 20);
+		CountingLoader loader = new CountingLoader();
+		CacheArrayLoader<VolatileShortArray> cached = cache.wrap(loader, "file.0");
+		short[] loaded = load(cached, 10);
+		cache.awaitWrites();
+		assertArrayEquals(loaded, load(cached, 10));
+		assertEquals(1, loader.loads.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		// Another key is another cell
+		load(cache.wrap(loader, "file.1"), 10);
+		assertEquals(2, loader.loads.get());
+	}
+
+	@Test
+	public void cellsAreKeptAcrossSessions() throws Exception {
+		Path directory = folder.newFolder("cells").toPath();
+		DiskCellCache cache = DiskCellCache.enable(directory, 1 << 20);
+		load(cache.wrap(new CountingLoader(), "file.0"), 10);
+		cache.awaitWrites();
+		long size = cache.getSizeBytes();
+		assertTrue(size > 0);
+
+		DiskCellCache next = DiskCellCache.enable(directory, 1 << 20);
+		next.awaitWrites();
+		assertEquals(size, next.getSizeBytes());
+		CountingLoader loader = new CountingLoader();
+		load(next.wrap(loader, "file.0"), 10);
+		assertEquals(0, loader.loads.get());
+	}
+
+	@Test
+	public void leastRecentlyUsedCellsAreEvicted() throws Exception {
+		// Size of a cell file: same key length for all cells below
+		DiskCellCache probe = DiskCellCache.enable(folder.newFolder("probe").toPath(), 1 << 20);
+		load(probe.wrap(new CountingLoader(), "file.0"), 90);
+		probe.awaitWrites();
+		long cellBytes = probe.getSizeBytes();
+
+		DiskCellCache cache = DiskCellCache.enable(folder.newFolder("cells").toPath(), 2 * cellBytes + cellBytes / 2);
+		CountingLoader loader = new CountingLoader();
+		CacheArrayLoader<VolatileShortArray> cached = cache.wrap(loader, "file.0");
+		load(cached, 10);
+		load(cached, 20);
+		cache.awaitWrites();
+		load(cached, 10); // Read back: 20 is now the least recently used
+		load(cached, 30);
+		cache.awaitWrites();
+		assertEquals(2 * cellBytes, cache.getSizeBytes());
+		assertEquals(2, cellFiles(cache).size());
+
+		int loads = loader.loads.get();
+		load(cached, 10);
+		load(cached, 30);
+		assertEquals(loads, loader.loads.get());
+		load(cached, 20);
+		assertEquals(loads + 1, loader.loads.get());
+	}
+
+	@Test
+	public void cellsLargerThanTheCacheAreNotWritten() throws Exception {
+		DiskCellCache cache = DiskCellCache.enable(folder.newFolder("cells").toPath(), 64);
+		load(cache.wrap(new CountingLoader(), "file.0"), 10);
+		cache.awaitWrites();
+		assertEquals(0, cache.getSizeBytes());
+		assertTrue(cellFiles(cache).isEmpty());
+	}
+
+	@Test
+	public void unreadableCellsAreDiscarded() throws Exception {
+		DiskCellCache cache = DiskCellCache.enable(folder.newFolder("cells").toPath(), 1 << 20);
+		CountingLoader loader = new CountingLoader();
+		CacheArrayLoader<VolatileShortArray> cached = cache.wrap(loader, "file.0");
+		short[] loaded = load(cached, 10);
+		cache.awaitWrites();
+		List<Path> files = cellFiles(cache);
+		assertEquals(1, files.size());
+		Files.write(files.get(0), new byte[] { 1, 2, 3 });
+		assertArrayEquals(loaded, load(cached, 10));
+		assertEquals(2, loader.loads.get());
+	}
+
+	@Test
+	public void onlyFilesOfTheCacheAreDeleted() throws Exception {
+		Path directory = folder.newFolder("scratch").toPath();
+		Path userFile = Files.write(directory.resolve("notes.txt"), new byte[] { 1 });
+		Path userShard = Files.createDirectories(directory.resolve("ab"));
+		Path userFileInShard = Files.write(userShard.resolve("data.bin"), new byte[] { 1 });
+		DiskCellCache cache = DiskCellCache.enable(directory, 1 << 20);
+		load(cache.wrap(new CountingLoader(), "file.0"), 10);
+		cache.awaitWrites();
+		Path cell = cellFiles(cache).get(0);
+		Path shard = cell.getParent();
+		Path interrupted = Files.write(shard.resolve(cell.getFileName() + "123" + ".tmp"), new byte[] { 1 });
+		Path other = Files.write(shard.resolve("readme.txt"), new byte[] { 1 });
+
+		DiskCellCache next = DiskCellCache.enable(directory, 1 << 20);
+		next.awaitWrites();
+		assertTrue(Files.exists(cell));
+		assertFalse(Files.exists(interrupted));
+		assertTrue(Files.exists(other));
+		assertTrue(Files.exists(userFile));
+		assertTrue(Files.exists(userFileInShard));
+		assertEquals(cache.getSizeBytes(), next.getSizeBytes());
+	}
+
+	@Test
+	public void directoriesWhichAreNotACacheAreNotUsed() throws Exception {
+		Path directory = folder.newFolder("scratch").toPath();
+		Files.createDirectories(directory.resolve(DiskCellCache.CELLS_DIRECTORY));
+		Files.write(directory.resolve(DiskCellCache.CELLS_DIRECTORY).resolve("notes.txt"), new byte[] { 1 });
+		assertNull(DiskCellCache.enable(directory, 1 << 20));
+	}
+
+	@Test
+	public void enableAndDisable() throws Exception {
+		DiskCellCache cache = DiskCellCache.enable(folder.newFolder("cells").toPath(), 1 << 20);
+		assertNotNull(cache);
+		assertSame(cache, DiskCellCache.getInstance());
+		DiskCellCache.disable();
+		assertNull(DiskCellCache.getInstance());
+		// A file can't be the directory of the cache
+		assertNull(DiskCellCache.enable(folder.newFile("file").toPath(), 1 << 20));
+	}
+
+}
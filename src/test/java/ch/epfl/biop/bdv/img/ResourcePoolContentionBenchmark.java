@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.bdv.img;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Measures the throughput of {@link ResourcePool} under contention, from 1 to 64
+ * threads, compared with the former pool built on a fair {@link ArrayBlockingQueue}
+ * and a creation lock.
+ * <p>
+ * Each thread repeatedly takes a resource, simulates a short tile read, and gives the
+ * resource back, as fetcher threads do with cached tiles. The pool holds 10 resources,
+ * the default number of fetcher threads of a dataset.
+ */
+public class ResourcePoolContentionBenchmark {
+
+	static final int POOL_SIZE = 10;
+	static final int OPERATIONS_PER_THREAD = 200_000;
+	static final int WORK_ITERATIONS = 50;
+	static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+	interface Pool {
+		Object acquire() throws Exception;
+		void recycle(Object resource);
+	}
+
+	static volatile long sink;
+
+	static public void main(String... args) throws Exception {
+		// Warm-up
+		run(newCurrentPool(), 8, OPERATIONS_PER_THREAD / 10);
+		run(newFormerPool(), 8, OPERATIONS_PER_THREAD / 10);
+
+		System.out.println("threads\tcurrent (ops/ms)\tformer (ops/ms)");
+		for (int nThreads : THREAD_COUNTS) {
+			double current = run(newCurrentPool(), nThreads, OPERATIONS_PER_THREAD);
+			double former = run(newFormerPool(), nThreads, OPERATIONS_PER_THREAD);
+			System.out.printf("%d\t%.0f\t%.0f%n", nThreads, current, former);
+		}
+	}
+
+	static Pool newCurrentPool() {
+		ResourcePool<Object> pool = new ResourcePool<Object>(POOL_SIZE, true) {
+			@Override
+			protected Object createObject() {
+				return new Object();
+			}
+		};
+		return new Pool() {
+			@Override
+			public Object acquire() throws Exception {
+				return pool.acquire();
+			}
+
+			@Override
+			public void recycle(Object resource) {
+				pool.recycle(resource);
+			}
+		};
+	}
+
+	static Pool newFormerPool() {
+		FormerResourcePool<Object> pool = new FormerResourcePool<Object>(POOL_SIZE) {
+			@Override
+			protected Object createObject() {
+				return new Object();
+			}
+		};
+		return new Pool() {
+			@Override
+			public Object acquire() throws Exception {
+				return pool.acquire();
+			}
+
+			@Override
+			public void recycle(Object resource) {
+				pool.recycle(resource);
+			}
+		};
+	}
+
+	/**
+	 * @return the number of acquire / recycle cycles per millisecond, all threads together
+	 */
+	static double run(Pool pool, int nThreads, int operationsPerThread) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			CountDownLatch startSignal = new CountDownLatch(1);
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int i = 0; i < nThreads; i++) {
+				tasks.add(executor.submit(() -> {
+					startSignal.await();
+					long local = 0;
+					for (int op = 0; op < operationsPerThread; op++) {
+						Object resource = pool.acquire();
+						for (int w = 0; w < WORK_ITERATIONS; w++) {
+							local += resource.hashCode() ^ w;
+						}
+						pool.recycle(resource);
+					}
+					sink += local;
+					return null;
+				}));
+			}
+			long start = System.nanoTime();
+			startSignal.countDown();
+			for (Future<?> task : tasks) task.get();
+			double elapsedMs = (System.nanoTime() - start) / 1e6;
+			return (double) nThreads * operationsPerThread / elapsedMs;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * The pool as it was before the lock-free idle stack: a fair blocking queue, and a lock
+	 * kept locked once the pool is full
+	 */
+	static abstract class FormerResourcePool<Resource> {
+
+		private final BlockingQueue<Resource> pool;
+		private final ReentrantLock lock = new ReentrantLock();
+		private int createdObjects = 0;
+		final private int size;
+
+		FormerResourcePool(int size) {
+			pool = new ArrayBlockingQueue<>(size, true);
+			this.size = size;
+		}
+
+		Resource acquire() throws Exception {
+			if (!lock.isLocked()) {
+				if (lock.tryLock()) {
+					try {
+						++createdObjects;
+						return createObject();
+					} finally {
+						if (createdObjects < size) lock.unlock();
+					}
+				}
+			}
+			return pool.take();
+		}
+
+		void recycle(Resource resource) {
+			pool.add(resource);
+		}
+
+		protected abstract Resource createObject();
+	}
+
+}
@@ -0,0 +1,381 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.bdv.img;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResourcePoolTest {
+
+	static class Resource {
+		volatile boolean closed = false;
+	}
+
+	static class TestPool extends ResourcePool<Resource> {
+
+		final List<Resource> destroyed = new CopyOnWriteArrayList<>();
+
+		TestPool(int size) {
+			super(size, true);
+		}
+
+		@Override
+		protected Resource createObject() {
+			return new Resource();
+		}
+
+		@Override
+		protected void destroyObject(Resource resource) {
+			resource.closed = true;
+			destroyed.add(resource);
+		}
+
+		void close() {
+			shutDown(resource -> resource.closed = true);
+		}
+	}
+
+	@Test
+	public void closedLeaseGivesTheResourceBack() throws Exception {
+		TestPool pool = new TestPool(1);
+		Resource resource;
+		try (ResourcePool<Resource>.Lease lease = pool.lease()) {
+			resource = lease.get();
+			assertEquals(1, pool.getCreatedCount());
+			assertEquals(0, pool.getIdleCount());
+		}
+		assertEquals(1, pool.getIdleCount());
+		try (ResourcePool<Resource>.Lease lease = pool.lease()) {
+			assertSame(resource, lease.get());
+		}
+		pool.close();
+	}
+
+	@Test
+	public void invalidatedLeaseDestroysTheResource() throws Exception {
+		TestPool pool = new TestPool(2);
+		Resource resource;
+		try (ResourcePool<Resource>.Lease lease = pool.lease()) {
+			resource = lease.get();
+			lease.invalidate();
+		}
+		assertTrue(resource.closed);
+		assertEquals(0, pool.getCreatedCount());
+		assertEquals(0, pool.getIdleCount());
+		try (ResourcePool<Resource>.Lease lease = pool.lease()) {
+			assertNotSame(resource, lease.get());
+		}
+		pool.close();
+	}
+
+	@Test
+	public void closingALeaseTwiceGivesTheResourceBackOnce() throws Exception {
+		TestPool pool = new TestPool(2);
+		ResourcePool<Resource>.Lease lease = pool.lease();
+		lease.close();
+		lease.close();
+		assertEquals(1, pool.getIdleCount());
+		assertEquals(1, pool.getCreatedCount());
+		pool.close();
+	}
+
+	@Test
+	public void tryLeaseNeverCreates() throws Exception {
+		TestPool pool = new TestPool(2);
+		assertNull(pool.tryLease());
+		pool.lease().close();
+		try (ResourcePool<Resource>.Lease lease = pool.tryLease()) {
+			assertTrue(lease != null);
+			assertNull(pool.tryLease());
+		}
+		pool.close();
+	}
+
+	@Test
+	public void leaseTimesOutWhenThePoolIsExhausted() throws Exception {
+		TestPool pool = new TestPool(1);
+		try (ResourcePool<Resource>.Lease ignored = pool.lease()) {
+			long start = System.nanoTime();
+			try {
+				pool.lease(100, TimeUnit.MILLISECONDS);
+				fail("The lease should time out");
+			} catch (TimeoutException e) {
+				assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+			}
+		}
+		pool.close();
+	}
+
+	@Test
+	public void waitingLeaseIsWokenUpWhenAResourceIsGivenBack() throws Exception {
+		TestPool pool = new TestPool(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ResourcePool<Resource>.Lease lease = pool.lease();
+			Future<Long> waitedMs = executor.submit(() -> {
+				long start = System.nanoTime();
+				try (ResourcePool<Resource>.Lease ignored = pool.lease(10, TimeUnit.SECONDS)) {
+					return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				}
+			});
+			Thread.sleep(50);
+			lease.close();
+			assertTrue(waitedMs.get(5, TimeUnit.SECONDS) < 500);
+		} finally {
+			executor.shutdownNow();
+			pool.close();
+		}
+	}
+
+	@Test
+	public void eachResourceGivenBackWakesUpAWaiter() throws Exception {
+		TestPool pool = new TestPool(1);
+		int nWaiters = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(nWaiters);
+		try {
+			ResourcePool<Resource>.Lease lease = pool.lease();
+			List<Future<?>> waiters = new ArrayList<>();
+			for (int i = 0; i < nWaiters; i++) {
+				waiters.add(executor.submit(() -> {
+					try (ResourcePool<Resource>.Lease ignored = pool.lease(10, TimeUnit.SECONDS)) {
+						Thread.sleep(5);
+					}
+					return null;
+				}));
+			}
+			Thread.sleep(50);
+			long start = System.nanoTime();
+			lease.close();
+			for (Future<?> waiter : waiters) {
+				waiter.get(5, TimeUnit.SECONDS);
+			}
+			// Woken up one after the other, without waiting for a timeout
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+			assertEquals(1, pool.getCreatedCount());
+		} finally {
+			executor.shutdownNow();
+			pool.close();
+		}
+	}
+
+	@Test
+	public void waitingLeaseIsWokenUpWhenAResourceIsDiscarded() throws Exception {
+		TestPool pool = new TestPool(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ResourcePool<Resource>.Lease lease = pool.lease();
+			Future<Resource> next = executor.submit(() -> {
+				try (ResourcePool<Resource>.Lease other = pool.lease(10, TimeUnit.SECONDS)) {
+					return other.get();
+				}
+			});
+			Thread.sleep(50);
+			lease.invalidate();
+			lease.close();
+			assertNotSame(lease.get(), next.get(500, TimeUnit.MILLISECONDS));
+		} finally {
+			executor.shutdownNow();
+			pool.close();
+		}
+	}
+
+	@Test
+	public void shutDownClosesIdleResources() throws Exception {
+		TestPool pool = new TestPool(2);
+		ResourcePool<Resource>.Lease first = pool.lease();
+		ResourcePool<Resource>.Lease second = pool.lease();
+		first.close();
+		second.close();
+		pool.close();
+		assertTrue(first.get().closed);
+		assertTrue(second.get().closed);
+		assertEquals(0, pool.getCreatedCount());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void resourcesInUseAreClosedWhenGivenBackAfterShutDown() throws Exception {
+		TestPool pool = new TestPool(3);
+		ResourcePool<Resource>.Lease recycled = pool.lease();
+		ResourcePool<Resource>.Lease discarded = pool.lease();
+		Resource acquired = pool.acquire();
+		pool.close();
+		assertEquals(3, pool.getCreatedCount());
+
+		recycled.close();
+		discarded.invalidate();
+		discarded.close();
+		pool.recycle(acquired);
+
+		assertTrue(recycled.get().closed);
+		assertTrue(discarded.get().closed);
+		assertTrue(acquired.closed);
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(0, pool.getCreatedCount());
+	}
+
+	@Test
+	public void readerBudgetIsReleasedOncePerResource() throws Exception {
+		int liveBefore = ReaderBudget.getInstance().getLiveCount();
+		TestPool pool = new TestPool(2);
+		ResourcePool<Resource>.Lease idle = pool.lease();
+		ResourcePool<Resource>.Lease inUse = pool.lease();
+		idle.close();
+		assertEquals(liveBefore + 2, ReaderBudget.getInstance().getLiveCount());
+		pool.close();
+		assertEquals(liveBefore + 1, ReaderBudget.getInstance().getLiveCount());
+		inUse.invalidate();
+		inUse.close();
+		assertEquals(liveBefore, ReaderBudget.getInstance().getLiveCount());
+	}
+
+	@Test
+	public void readerBudgetKeepsTheMinimalSizeOfOtherPools() throws Exception {
+		ReaderBudget budget = ReaderBudget.getInstance();
+		int maxBefore = budget.getMax();
+		TestPool other = new TestPool(2);
+		other.setMinSize(1);
+		TestPool pool = new TestPool(2);
+		try {
+			ResourcePool<Resource>.Lease kept = other.lease();
+			kept.close(); // Idle, but the only resource of its pool
+			budget.setMax(budget.getLiveCount());
+			try {
+				pool.lease(100, TimeUnit.MILLISECONDS).close();
+			} catch (TimeoutException e) {
+				// No other pool had an idle resource to spare
+			}
+			assertEquals(1, other.getCreatedCount());
+			assertFalse(kept.get().closed);
+		} finally {
+			budget.setMax(maxBefore);
+			pool.close();
+			other.close();
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedPoolRefusesLeases() throws Exception {
+		TestPool pool = new TestPool(1);
+		pool.close();
+		assertFalse(pool.getCreatedCount() > 0);
+		pool.lease();
+	}
+
+	@Test
+	public void idleResourcesAreTakenBeforeCreatingNewOnes() throws Exception {
+		TestPool pool = new TestPool(4);
+		Resource resource;
+		try (ResourcePool<Resource>.Lease lease = pool.lease()) {
+			resource = lease.get();
+		}
+		assertSame(resource, pool.acquire());
+		assertEquals(1, pool.getCreatedCount());
+		pool.recycle(resource);
+		try (ResourcePool<Resource>.Lease lease = pool.lease(1, TimeUnit.SECONDS)) {
+			assertSame(resource, lease.get());
+			assertEquals(1, pool.getCreatedCount());
+		}
+		pool.close();
+	}
+
+	@Test
+	public void resourcesIdlePastTheTimeToLiveAreClosedDownToTheMinimalSize() throws Exception {
+		TestPool pool = new TestPool(4);
+		pool.setMinSize(1);
+		pool.setIdleTimeToLive(50, TimeUnit.MILLISECONDS);
+		List<ResourcePool<Resource>.Lease> leases = new ArrayList<>();
+		for (int i = 0; i < 3; i++) leases.add(pool.lease());
+		for (ResourcePool<Resource>.Lease lease : leases) lease.close();
+		assertEquals(3, pool.getIdleCount());
+
+		pool.evictIdle(); // Not idle for long enough
+		assertEquals(3, pool.getCreatedCount());
+
+		Thread.sleep(100);
+		pool.evictIdle();
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(1, pool.getIdleCount());
+		// The least recently used resources are closed first
+		assertTrue(leases.get(0).get().closed);
+		assertTrue(leases.get(1).get().closed);
+		assertFalse(leases.get(2).get().closed);
+		pool.close();
+	}
+
+	@Test
+	public void recentlyUsedResourcesAreKept() throws Exception {
+		TestPool pool = new TestPool(2);
+		pool.setMinSize(0);
+		pool.setIdleTimeToLive(100, TimeUnit.MILLISECONDS);
+		ResourcePool<Resource>.Lease old = pool.lease();
+		ResourcePool<Resource>.Lease recent = pool.lease();
+		old.close();
+		Thread.sleep(150);
+		recent.close();
+		pool.evictIdle();
+		assertTrue(old.get().closed);
+		assertFalse(recent.get().closed);
+		assertEquals(1, pool.getCreatedCount());
+		pool.close();
+	}
+
+	@Test
+	public void idleResourcesAreKeptByDefault() throws Exception {
+		TestPool pool = new TestPool(2);
+		pool.setMinSize(0);
+		pool.lease().close();
+		Thread.sleep(20);
+		pool.evictIdle();
+		assertEquals(1, pool.getCreatedCount());
+		pool.close();
+	}
+
+	@Test
+	public void noTimeToLiveKeepsIdleResources() throws Exception {
+		TestPool pool = new TestPool(2);
+		pool.setMinSize(0);
+		pool.setIdleTimeToLive(0, TimeUnit.MILLISECONDS);
+		pool.lease().close();
+		Thread.sleep(20);
+		pool.evictIdle();
+		assertEquals(1, pool.getCreatedCount());
+		pool.close();
+	}
+
+}
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.bdv.img.bioformats;
+
+import ch.epfl.biop.bdv.img.ResourcePool;
+import loci.common.DebugTools;
+import loci.formats.ChannelSeparator;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compares the allocations and the speed of the cell decoding of
+ * {@link BioFormatsArrayLoaders.BioFormatsUnsignedShortArrayLoader} with the
+ * former decoding path, which allocated a byte array per plane, copied it into
+ * a ByteBuffer and then into the short array of the cell.
+ * <p>
+ * The pixels come from a Bio-Formats fake image, so that only the decoding is
+ * measured, not the disk. Run with, e.g., {@code -Xmx2g} and compare the bytes
+ * allocated per cell printed for both paths.
+ */
+public class DecodeAllocationBenchmark {
+
+	static final String FAKE_ID = "benchmark&pixelType=uint16&sizeX=4096&sizeY=4096&sizeZ=16&little=true.fake";
+	static final int CELL_SIZE = 512;
+	static final int CELL_DEPTH = 8;
+	static final int WARM_UP_ROUNDS = 3;
+	static final int ROUNDS = 10;
+
+	static public void main(String... args) throws Exception {
+		DebugTools.enableLogging("OFF");
+
+		ResourcePool<IFormatReader> pool = new ResourcePool<IFormatReader>(1, true) {
+			@Override
+			protected IFormatReader createObject() {
+				IFormatReader reader = new ChannelSeparator(new ImageReader());
+				try {
+					reader.setId(FAKE_ID);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				return reader;
+			}
+		};
+
+		IFormatReader reader = pool.acquire();
+		boolean littleEndian = reader.isLittleEndian();
+		int sizeX = reader.getSizeX();
+		int sizeY = reader.getSizeY();
+		pool.recycle(reader);
+
+		BioFormatsArrayLoaders.BioFormatsUnsignedShortArrayLoader loader =
+				new BioFormatsArrayLoaders.BioFormatsUnsignedShortArrayLoader(pool, 0, 0, littleEndian);
+
+		CellVisitor current = (min, dims) -> loader.loadArray(0, 0, 0, dims, min).getCurrentStorageArray();
+		CellVisitor former = (min, dims) -> {
+			IFormatReader r = pool.acquire();
+			try {
+				return formerLoadArray(r, min, dims, littleEndian);
+			} finally {
+				pool.recycle(r);
+			}
+		};
+
+		for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+			visitCells(former, sizeX, sizeY);
+			visitCells(current, sizeX, sizeY);
+		}
+
+		report("Former decoding ", former, sizeX, sizeY);
+		report("Reusable buffers", current, sizeX, sizeY);
+
+		pool.shutDown(r -> {
+			try {
+				r.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Loads a cell the way the loaders did it before they decoded into reusable buffers
+	 */
+	static short[] formerLoadArray(IFormatReader reader, long[] min, int[] dimensions, boolean littleEndian) throws Exception {
+		reader.setSeries(0);
+		reader.setResolution(0);
+		int minX = (int) min[0];
+		int minY = (int) min[1];
+		int minZ = (int) min[2];
+		int w = Math.min(minX + dimensions[0], reader.getSizeX()) - minX;
+		int h = Math.min(minY + dimensions[1], reader.getSizeY()) - minY;
+		int maxZ = Math.min(minZ + dimensions[2], reader.getSizeZ());
+		int nElements = w * h * (maxZ - minZ);
+		ByteBuffer buffer = ByteBuffer.allocate(nElements * 2);
+		for (int z = minZ; z < maxZ; z++) {
+			buffer.put(reader.openBytes(reader.getIndex(z, 0, 0), minX, minY, w, h));
+		}
+		short[] shorts = new short[nElements];
+		buffer.flip();
+		buffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN).asShortBuffer().get(shorts);
+		return shorts;
+	}
+
+	static void report(String label, CellVisitor visitor, int sizeX, int sizeY) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		int nCells = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			nCells += visitCells(visitor, sizeX, sizeY);
+		}
+		long elapsedNs = System.nanoTime() - start;
+		long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		long cellBytes = (long) CELL_SIZE * CELL_SIZE * CELL_DEPTH * 2;
+		System.out.println(label + ": " + (elapsedNs / nCells / 1000) + " us per cell, " +
+				(allocated / nCells) + " bytes allocated per cell (" + cellBytes + " bytes of pixels)");
+	}
+
+	static int visitCells(CellVisitor visitor, int sizeX, int sizeY) throws Exception {
+		int nCells = 0;
+		int[] dims = {CELL_SIZE, CELL_SIZE, CELL_DEPTH};
+		for (int y = 0; y < sizeY; y += CELL_SIZE) {
+			for (int x = 0; x < sizeX; x += CELL_SIZE) {
+				visitor.load(new long[]{x, y, 0}, dims);
+				nCells++;
+			}
+		}
+		return nCells;
+	}
+
+	@FunctionalInterface
+	interface CellVisitor {
+		Object load(long[] min, int[] dimensions) throws Exception;
+	}
+
+}
@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.bdv.img.bioformats;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DecodedTileCacheTest {
+
+	static final int MB = 1024 * 1024;
+
+	static DecodedTileCache.TileKey key(int plane) {
+		return new DecodedTileCache.TileKey(0, 0, plane, 0, 0, 512, 512);
+	}
+
+	@After
+	public void resetGlobalBudget() {
+		System.clearProperty(DecodedTileCache.GLOBAL_MAX_MB_PROPERTY);
+	}
+
+	@Test
+	public void concurrentRequestsDecodeOnce() throws Exception {
+		DecodedTileCache cache = new DecodedTileCache(MB);
+		AtomicInteger decodes = new AtomicInteger();
+		CountDownLatch decoding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<byte[]>> results = new ArrayList<>();
+			results.add(executor.submit(() -> cache.get(key(0), -1, () -> {
+				decodes.incrementAndGet();
+				decoding.countDown();
+				release.await();
+				return new byte[]{1, 2, 3};
+			})));
+			assertTrue(decoding.await(5, TimeUnit.SECONDS));
+			for (int i = 0; i < 3; i++) {
+				results.add(executor.submit(() -> cache.get(key(0), -1, () -> {
+					decodes.incrementAndGet();
+					return new byte[]{4, 5, 6};
+				})));
+			}
+			release.countDown();
+			for (Future<byte[]> result : results) {
+				assertArrayEquals(new byte[]{1, 2, 3}, result.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, decodes.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void blockIsDroppedAfterItsExpectedUses() throws Exception {
+		DecodedTileCache cache = new DecodedTileCache(MB);
+		byte[] data = new byte[100];
+		assertSame(data, cache.get(key(0), 3, () -> data));
+		assertTrue(cache.contains(key(0)));
+		assertSame(data, cache.getIfPresent(key(0)));
+		assertSame(data, cache.getIfPresent(key(0)));
+		assertFalse(cache.contains(key(0)));
+		assertEquals(0, cache.getCurrentBytes());
+	}
+
+	@Test
+	public void failedDecodeIsNotCached() {
+		DecodedTileCache cache = new DecodedTileCache(MB);
+		try {
+			cache.get(key(0), -1, () -> {
+				throw new IllegalStateException("broken tile");
+			});
+			fail("The decoding error should be thrown");
+		} catch (Exception e) {
+			assertEquals("broken tile", e.getMessage());
+		}
+		assertFalse(cache.contains(key(0)));
+	}
+
+	@Test
+	public void leastRecentlyUsedBlocksAreEvicted() {
+		DecodedTileCache cache = new DecodedTileCache(300);
+		cache.put(key(0), new byte[100], -1);
+		cache.put(key(1), new byte[100], -1);
+		cache.put(key(2), new byte[100], -1);
+		assertTrue(cache.contains(key(0)));
+		cache.getIfPresent(key(0)); // key(1) becomes the least recently used
+		cache.put(key(3), new byte[100], -1);
+		assertFalse(cache.contains(key(1)));
+		assertTrue(cache.contains(key(0)));
+		assertTrue(cache.contains(key(3)));
+		assertEquals(300, cache.getCurrentBytes());
+	}
+
+	@Test
+	public void blocksLargerThanTheCacheAreNotKept() {
+		DecodedTileCache cache = new DecodedTileCache(100);
+		cache.put(key(0), new byte[101], -1);
+		assertNull(cache.getIfPresent(key(0)));
+		assertEquals(0, cache.getCurrentBytes());
+	}
+
+	@Test
+	public void globalBudgetEvictsAcrossCaches() {
+		System.setProperty(DecodedTileCache.GLOBAL_MAX_MB_PROPERTY, "1");
+		DecodedTileCache first = new DecodedTileCache(MB);
+		DecodedTileCache second = new DecodedTileCache(MB);
+		first.put(key(0), new byte[MB / 2], -1);
+		second.put(key(0), new byte[MB / 2], -1);
+		assertTrue(first.contains(key(0)));
+		// The oldest block of the JVM, in the other cache, makes room for this one
+		second.put(key(1), new byte[MB / 2], -1);
+		assertFalse(first.contains(key(0)));
+		assertTrue(second.contains(key(0)));
+		assertTrue(second.contains(key(1)));
+		assertTrue(DecodedTileCache.getGlobalCurrentBytes() <= MB);
+	}
+
+}
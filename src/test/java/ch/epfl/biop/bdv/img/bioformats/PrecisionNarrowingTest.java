@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.bdv.img.bioformats;
+
+import ch.epfl.biop.bdv.img.opener.OpenerSettings;
+import loci.formats.FormatTools;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrecisionNarrowingTest {
+
+	static byte[] floats(ByteOrder order, float... values) {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(order);
+		for (float v : values) buffer.putFloat(v);
+		return buffer.array();
+	}
+
+	static byte[] shorts(ByteOrder order, int... values) {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 2).order(order);
+		for (int v : values) buffer.putShort((short) v);
+		return buffer.array();
+	}
+
+	static byte[] doubles(ByteOrder order, double... values) {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 8).order(order);
+		for (double v : values) buffer.putDouble(v);
+		return buffer.array();
+	}
+
+	@Test
+	public void optionsAreParsedCaseInsensitively() {
+		assertEquals(PrecisionNarrowing.FLOAT32_TO_UINT16, PrecisionNarrowing.fromOption(" Float32_To_UInt16 "));
+		assertEquals(PrecisionNarrowing.UINT16_TO_UINT8, PrecisionNarrowing.fromOption("uint16_to_uint8"));
+		assertEquals(PrecisionNarrowing.FLOAT64_TO_FLOAT32, PrecisionNarrowing.fromOption("float64_to_float32"));
+		assertNull(PrecisionNarrowing.fromOption(null));
+		assertNull(PrecisionNarrowing.fromOption(" "));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownOptionIsRejected() {
+		PrecisionNarrowing.fromOption("float32_to_uint8");
+	}
+
+	@Test
+	public void pixelTypes() {
+		assertEquals(FormatTools.FLOAT, PrecisionNarrowing.FLOAT32_TO_UINT16.getSourcePixelType());
+		assertEquals(FormatTools.UINT16, PrecisionNarrowing.FLOAT32_TO_UINT16.getTargetPixelType());
+		assertTrue(PrecisionNarrowing.FLOAT32_TO_UINT16.getTargetType() instanceof UnsignedShortType);
+		assertTrue(PrecisionNarrowing.UINT16_TO_UINT8.needsWindow());
+		assertFalse(PrecisionNarrowing.FLOAT64_TO_FLOAT32.needsWindow());
+	}
+
+	@Test
+	public void floatRangeIgnoresNonFiniteValues() {
+		byte[] bytes = floats(ByteOrder.LITTLE_ENDIAN, 3f, Float.NaN, -2.5f, Float.POSITIVE_INFINITY, 10f);
+		assertArrayEquals(new double[]{-2.5, 10},
+				PrecisionNarrowing.FLOAT32_TO_UINT16.getRangeEstimator().getRange(bytes, bytes.length, ByteOrder.LITTLE_ENDIAN), 0);
+	}
+
+	@Test
+	public void unsignedShortRangeIsUnsigned() {
+		byte[] bytes = shorts(ByteOrder.BIG_ENDIAN, 40000, 12, 65535, 300);
+		assertArrayEquals(new double[]{12, 65535},
+				PrecisionNarrowing.UINT16_TO_UINT8.getRangeEstimator().getRange(bytes, bytes.length, ByteOrder.BIG_ENDIAN), 0);
+	}
+
+	@Test
+	public void rangeOnlyReadsValidBytes() {
+		byte[] bytes = shorts(ByteOrder.LITTLE_ENDIAN, 100, 200, 5);
+		assertArrayEquals(new double[]{100, 200},
+				PrecisionNarrowing.UINT16_TO_UINT8.getRangeEstimator().getRange(bytes, 4, ByteOrder.LITTLE_ENDIAN), 0);
+	}
+
+	@Test
+	public void floatToUnsignedShortMapsTheWindowAndClamps() {
+		byte[] bytes = floats(ByteOrder.BIG_ENDIAN, 0f, 0.5f, 1f, -1f, 2f, Float.NaN);
+		short[] dest = new short[7];
+		BioFormatsArrayLoaders.floatToUnsignedShortDecoder(ByteOrder.BIG_ENDIAN, 0, 1)
+				.decode(bytes, bytes.length, dest, 1);
+		assertEquals(0, dest[0]);
+		assertEquals(0, dest[1] & 0xffff);
+		assertEquals(32768, dest[2] & 0xffff);
+		assertEquals(65535, dest[3] & 0xffff);
+		assertEquals(0, dest[4] & 0xffff);
+		assertEquals(65535, dest[5] & 0xffff);
+		assertEquals(0, dest[6] & 0xffff);
+	}
+
+	@Test
+	public void unsignedShortToUnsignedByteMapsTheWindowAndClamps() {
+		byte[] bytes = shorts(ByteOrder.LITTLE_ENDIAN, 1000, 1510, 2020, 0, 65535);
+		byte[] dest = new byte[5];
+		BioFormatsArrayLoaders.unsignedShortToUnsignedByteDecoder(ByteOrder.LITTLE_ENDIAN, 1000, 2020)
+				.decode(bytes, bytes.length, dest, 0);
+		assertEquals(0, dest[0] & 0xff);
+		assertEquals(128, dest[1] & 0xff);
+		assertEquals(255, dest[2] & 0xff);
+		assertEquals(0, dest[3] & 0xff);
+		assertEquals(255, dest[4] & 0xff);
+	}
+
+	@Test
+	public void doubleToFloatKeepsTheValues() {
+		byte[] bytes = doubles(ByteOrder.LITTLE_ENDIAN, 1.25, -3e20, Double.NaN);
+		float[] dest = new float[3];
+		BioFormatsArrayLoaders.doubleToFloatDecoder(ByteOrder.LITTLE_ENDIAN).decode(bytes, bytes.length, dest, 0);
+		assertEquals(1.25f, dest[0], 0);
+		assertEquals(-3e20f, dest[1], 1e14f);
+		assertTrue(Float.isNaN(dest[2]));
+	}
+
+	@Test
+	public void onlyNarrowingsWithWindowEstimateARange() {
+		assertNull(PrecisionNarrowing.FLOAT64_TO_FLOAT32.getRangeEstimator());
+	}
+
+	@Test
+	public void invalidWindowsAreRejected() {
+		PrecisionNarrowing.checkWindow(-1, 1);
+		double[][] windows = { { 1, 1 }, { 2, 1 }, { Double.NaN, 1 }, { 0, Double.POSITIVE_INFINITY } };
+		for (double[] window : windows) {
+			try {
+				PrecisionNarrowing.checkWindow(window[0], window[1]);
+				fail("Window [" + window[0] + ", " + window[1] + "] should be rejected");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void settingsRejectAnEmptyWindow() {
+		OpenerSettings.BioFormats().narrowPrecision("float32_to_uint16", 100, 100);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void settingsRejectAWindowForANarrowingWithoutWindow() {
+		OpenerSettings.BioFormats().narrowPrecision("float64_to_float32", 0, 1);
+	}
+
+
+}
@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.bdv.img.opener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Times the memoization of the resources of 200 files opened in parallel, as
+ * {@link OpenersImageLoader} does, with {@link OpenerHelper#memoize(String, Map, Supplier)}
+ * and with the former memoize, which computed every object under a single JVM-wide lock.
+ * <p>
+ * Each file needs a slow resource (a reader pool: {@code setId}, RPCs...) and takes an
+ * index from a counter shared by all files, like the file and plate indexes of
+ * {@link ch.epfl.biop.bdv.img.bioformats.BioFormatsOpener}.
+ */
+public class MemoizeBenchmark {
+
+    static final int N_FILES = 200;
+    static final int N_THREADS = 16;
+    static final long OPENING_MS = 20;
+
+    interface Memoizer {
+        <T> T memoize(String key, Map<String, Object> cache, Supplier<T> getter);
+    }
+
+    static public void main(String... args) throws Exception {
+        Memoizer current = OpenerHelper::memoize;
+        Memoizer former = MemoizeBenchmark::formerMemoize;
+
+        // Warm-up
+        openFiles(former, 20, 1);
+        openFiles(current, 20, 1);
+
+        long formerMs = openFiles(former, N_FILES, OPENING_MS);
+        long currentMs = openFiles(current, N_FILES, OPENING_MS);
+        System.out.println("Opening " + N_FILES + " files (" + OPENING_MS + " ms each) with " + N_THREADS + " threads");
+        System.out.println("Global lock memoize: " + formerMs + " ms");
+        System.out.println("Per key memoize    : " + currentMs + " ms");
+    }
+
+    /**
+     * Memoize as it was before objects were computed per key
+     */
+    synchronized static <T> T formerMemoize(String key, Map<String, Object> cache, Supplier<T> getter) {
+        if (!cache.containsKey(key)) {
+            cache.put(key, getter.get());
+        }
+        return (T) cache.get(key);
+    }
+
+    /**
+     * @return the time taken to open all files, in milliseconds
+     */
+    static long openFiles(Memoizer memoizer, int nFiles, long openingMs) throws Exception {
+        Map<String, Object> cache = new ConcurrentHashMap<>();
+        Map<Integer, Integer> fileIndexes = new ConcurrentHashMap<>();
+        ForkJoinPool threads = new ForkJoinPool(N_THREADS);
+        long start = System.currentTimeMillis();
+        try {
+            threads.submit(() -> IntStream.range(0, nFiles).parallel().forEach(iFile -> {
+                String location = "file" + iFile;
+                memoizer.memoize("pool." + location, cache, () -> {
+                    sleep(openingMs);
+                    return new Object();
+                });
+                // Shared counter, incremented once per file
+                int index = memoizer.memoize("fileindex." + location, cache, () -> {
+                    synchronized (cache) {
+                        Integer current = (Integer) cache.getOrDefault("currentfileindex", 0);
+                        cache.put("currentfileindex", current + 1);
+                        return current;
+                    }
+                });
+                fileIndexes.put(iFile, index);
+            })).get();
+        } finally {
+            threads.shutdown();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (fileIndexes.values().stream().distinct().count() != nFiles) {
+            throw new IllegalStateException("File indexes are not unique: " + fileIndexes);
+        }
+        return elapsed;
+    }
+
+    static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * Various image loaders for bigdataviewer (Bio-Formats, Omero, QuPath)
+ * %%
+ * Copyright (C) 2022 - 2026 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE, Switzerland, BioImaging And Optics Platform (BIOP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package ch.epfl.biop.bdv.img.opener;
+
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpenerStructureTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Structure of a single level image, stamped as OpenerStructure.capture does
+    private static OpenerStructure stamped(OpenerSettings settings, String... files) {
+        OpenerStructure structure = new OpenerStructure();
+        structure.rawPixelDataKey = "image";
+        structure.pixelType = UnsignedShortType.class.getName();
+        structure.dimensions = new long[][] {{512, 512, 1}};
+        structure.cellDimensions = new int[][] {{512, 512, 1}};
+        assertTrue(structure.stamp(settings, files));
+        return structure;
+    }
+
+    private File newFile(String name, int size) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+
+    private static void append(File file) throws IOException {
+        Files.write(file.toPath(), new byte[16], StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void validForTheSameSettingsAndFiles() throws IOException {
+        File file = newFile("image.tif", 1024);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location(file).setSerie(1), file.getAbsolutePath());
+        assertTrue(structure.isValidFor(OpenerSettings.BioFormats().location(file).setSerie(1)));
+    }
+
+    @Test
+    public void invalidWhenTheFileChanged() throws IOException {
+        File file = newFile("image.tif", 1024);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location(file), file.getAbsolutePath());
+        append(file);
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(file)));
+    }
+
+    @Test
+    public void invalidWhenTheFileIsMissing() throws IOException {
+        File file = newFile("image.tif", 1024);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location(file), file.getAbsolutePath());
+        assertTrue(file.delete());
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(file)));
+    }
+
+    @Test
+    public void invalidWhenTheSettingsChanged() throws IOException {
+        File file = newFile("image.tif", 1024);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location(file), file.getAbsolutePath());
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(file).setSerie(1)));
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(file).splitRGBChannels(true)));
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(file).cacheBlockSize(256, 256, 1)));
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(file).narrowPrecision("uint16_to_uint8")));
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(file).to16bits(true)));
+        assertTrue(structure.isValidFor(OpenerSettings.BioFormats().location(file)));
+    }
+
+    @Test
+    public void validAfterTheLocationIsFixed() throws IOException {
+        File file = newFile("image.tif", 1024);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location("/former/location/image.tif"));
+        // Stamps of the file before it was moved
+        structure.fileSize = file.length();
+        structure.lastModified = file.lastModified();
+        assertTrue(structure.isValidFor(OpenerSettings.BioFormats().location(file)));
+    }
+
+    @Test
+    public void invalidWhenAnotherFileOfTheImageChanged() throws IOException {
+        File vsi = newFile("image.vsi", 1024);
+        File ets = newFile("frame.ets", 4096);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location(vsi),
+                vsi.getAbsolutePath(), ets.getAbsolutePath());
+        assertEquals(1, structure.usedFiles.length);
+        assertTrue(structure.isValidFor(OpenerSettings.BioFormats().location(vsi)));
+        append(ets);
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(vsi)));
+    }
+
+    @Test
+    public void invalidWhenAnotherFileOfTheImageIsMissing() throws IOException {
+        File vsi = newFile("image.vsi", 1024);
+        File ets = newFile("frame.ets", 4096);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location(vsi),
+                vsi.getAbsolutePath(), ets.getAbsolutePath());
+        assertTrue(ets.delete());
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(vsi)));
+    }
+
+    @Test
+    public void directoriesAreNotStamped() throws IOException {
+        File zarr = folder.newFolder("image.zarr");
+        assertFalse(new OpenerStructure().stamp(OpenerSettings.BioFormats().location(zarr), new String[0]));
+    }
+
+    @Test
+    public void omeroImagesAreNotStamped() {
+        OpenerSettings settings = OpenerSettings.OMERO().location("https://omero.example.org/webclient/?show=image-1");
+        OpenerStructure structure = new OpenerStructure();
+        structure.rawPixelDataKey = "image";
+        structure.pixelType = UnsignedShortType.class.getName();
+        structure.dimensions = new long[][] {{512, 512, 1}};
+        structure.cellDimensions = new int[][] {{512, 512, 1}};
+        assertFalse(structure.stamp(settings, new String[0]));
+        // Nor trusted if saved anyway: the image may have changed on the server
+        assertFalse(structure.isValidFor(settings));
+    }
+
+    @Test
+    public void imagesWithTooManyFilesAreNotStamped() throws IOException {
+        File file = newFile("image.tif", 1024);
+        String[] files = new String[OpenerStructure.MAX_STAMPED_FILES + 1];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(folder.getRoot(), "plane" + i + ".tif").getAbsolutePath();
+        }
+        assertFalse(new OpenerStructure().stamp(OpenerSettings.BioFormats().location(file), files));
+    }
+
+    @Test
+    public void incompleteStructuresAreInvalid() throws IOException {
+        File file = newFile("image.tif", 1024);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location(file), file.getAbsolutePath());
+        structure.pixelType = null;
+        assertFalse(structure.isValidFor(OpenerSettings.BioFormats().location(file)));
+    }
+
+    @Test
+    public void pixelTypeIsCreatedFromItsClass() throws IOException {
+        File file = newFile("image.tif", 1024);
+        OpenerStructure structure = stamped(OpenerSettings.BioFormats().location(file), file.getAbsolutePath());
+        assertTrue(structure.createPixelType() instanceof UnsignedShortType);
+    }
+
+}